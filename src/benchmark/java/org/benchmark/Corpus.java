@@ -0,0 +1,70 @@
+package org.benchmark;
+
+import java.util.Map;
+
+import org.suite.Main;
+import org.util.Util;
+
+/**
+ * Standard programs measured by the benchmarks. Sizes are kept small enough
+ * for lazy mode to finish in reasonable time.
+ */
+public class Corpus {
+
+	public static final Map<String, String> functionalPrograms = Util
+			.createHashMap();
+
+	public static final Map<String, String> logicPrograms = Util
+			.createHashMap();
+
+	// Fixed input of the filter program
+	public static final byte filterInput[] = new byte[256];
+
+	static {
+		functionalPrograms.put("fibonacci", "" //
+				+ "define fib = (n => \n" //
+				+ "    if (n > 1) then (fib {n - 1} + fib {n - 2}) else 1 \n" //
+				+ ") >> \n" //
+				+ "fib {12}");
+		functionalPrograms.put("quick-sort", "" //
+				+ "length {quick-sort {`<`} {5, 3, 8, 1, 9, 2,}}");
+		functionalPrograms.put("primes", "" //
+				+ "define range = (i => j => \n" //
+				+ "    if (i < j) then (i, range {i + 1} {j}) else () \n" //
+				+ ") >> \n" //
+				+ "define sieve = if-match (p, ps) \n" //
+				+ "    then (p, sieve {filter {n => n % p > 0} {ps}}) \n" //
+				+ "    else () \n" //
+				+ ">> \n" //
+				+ "length {sieve {range {2} {20}}}");
+		functionalPrograms.put("filter", Main.applyFilter("c => c"));
+
+		logicPrograms.put("fibonacci", "" //
+				+ "( \n" //
+				+ "    fib 0 1 # \n" //
+				+ "    fib 1 1 # \n" //
+				+ "    fib .n .f \n" //
+				+ "        :- let .n1 (.n - 1) \n" //
+				+ "        , let .n2 (.n1 - 1) \n" //
+				+ "        , fib .n1 .f1 \n" //
+				+ "        , fib .n2 .f2 \n" //
+				+ "        , let .f (.f1 + .f2) \n" //
+				+ "    # \n" //
+				+ ") >> fib 12 233");
+		logicPrograms.put("cuts", "" //
+				+ "( \n" //
+				+ "    first .e (.e, .es) :- ! # \n" //
+				+ "    first .e (.f, .es) :- first .e .es # \n" //
+				+ "    loop 0 :- ! # \n" //
+				+ "    loop .n \n" //
+				+ "        :- first 4 (1, 2, 3, 4, 5,) \n" //
+				+ "        , let .n1 (.n - 1) \n" //
+				+ "        , loop .n1 \n" //
+				+ "    # \n" //
+				+ ") >> loop 200");
+
+		for (int i = 0; i < filterInput.length; i++)
+			filterInput[i] = (byte) ('a' + i % 26);
+	}
+
+}
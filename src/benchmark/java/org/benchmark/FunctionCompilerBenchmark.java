@@ -0,0 +1,52 @@
+package org.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.suite.SuiteUtil;
+import org.suite.SuiteUtil.FunCompilerConfig;
+import org.suite.node.Node;
+
+/**
+ * Measures proving compile-function, from the parsed program to the
+ * instruction list. The compile cache is bypassed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class FunctionCompilerBenchmark {
+
+	@Param({ "fibonacci", "quick-sort", "primes", "filter" })
+	public String program;
+
+	@Param({ "EAGER", "LAZY" })
+	public String mode;
+
+	private FunCompilerConfig config;
+
+	@Setup
+	public void setup() {
+		String p = Corpus.functionalPrograms.get(program);
+		config = FunCompilerConfig.create(p, "LAZY".equals(mode));
+		config.setCached(false);
+	}
+
+	@Benchmark
+	public Node compile() {
+		return SuiteUtil.compileFunctional(config);
+	}
+
+}
@@ -0,0 +1,69 @@
+package org.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.instructionexecutor.FunctionInstructionExecutor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.suite.SuiteUtil;
+import org.suite.SuiteUtil.FunCompilerConfig;
+import org.suite.node.Node;
+
+/**
+ * Measures running compiled functional programs. Compilation and instruction
+ * extraction are done once beforehand.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class FunctionExecutorBenchmark {
+
+	@Param({ "fibonacci", "quick-sort", "primes", "filter" })
+	public String program;
+
+	@Param({ "EAGER", "LAZY" })
+	public String mode;
+
+	@Param({ "SWITCH", "THREADED", "JIT" })
+	public String engine;
+
+	private FunctionInstructionExecutor executor;
+
+	@Setup
+	public void setup() {
+		String p = Corpus.functionalPrograms.get(program);
+		FunCompilerConfig config = FunCompilerConfig.create(p,
+				"LAZY".equals(mode));
+		executor = new FunctionInstructionExecutor(
+				SuiteUtil.compileFunctional(config));
+	}
+
+	@Benchmark
+	public Node execute() {
+		executor.setIn(new ByteArrayInputStream(Corpus.filterInput));
+		executor.setOut(new PrintStream(new ByteArrayOutputStream()));
+
+		if ("JIT".equals(engine))
+			return executor.executeJit();
+		else if ("THREADED".equals(engine))
+			return executor.executeThreaded();
+		else
+			return executor.execute();
+	}
+
+}
@@ -0,0 +1,64 @@
+package org.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.instructionexecutor.LogicInstructionExecutor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.suite.SuiteUtil;
+import org.suite.doer.Cloner;
+import org.suite.node.Node;
+
+/**
+ * Measures compiling and running logic programs by the logic compiler and
+ * LogicInstructionExecutor.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class LogicBenchmark {
+
+	@Param({ "fibonacci", "cuts" })
+	public String program;
+
+	private Node node;
+	private Node code;
+	private Node runCode;
+
+	@Setup
+	public void setup() {
+		node = SuiteUtil.parse(Corpus.logicPrograms.get(program));
+		code = SuiteUtil.compileLogical(node);
+	}
+
+	// Compiled code holds the variables of the program, bound by running
+	@Setup(Level.Invocation)
+	public void cloneCode() {
+		runCode = new Cloner().clone(code);
+	}
+
+	@Benchmark
+	public Node compile() {
+		return SuiteUtil.compileLogical(node);
+	}
+
+	@Benchmark
+	public Node execute() {
+		return new LogicInstructionExecutor(SuiteUtil.getLogicalCompiler(),
+				runCode).execute();
+	}
+
+}
@@ -4,144 +4,135 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintStream;
 
+import org.instructionexecutor.InstructionExecutorUtil.CallStack;
 import org.instructionexecutor.InstructionExecutorUtil.Closure;
 import org.instructionexecutor.InstructionExecutorUtil.Frame;
 import org.instructionexecutor.InstructionExecutorUtil.Instruction;
-import org.suite.doer.TermParser.TermOp;
+import org.instructionexecutor.InstructionExecutorUtil.Stack;
+import org.instructionexecutor.SysCalls.SysCall;
 import org.suite.node.Atom;
-import org.suite.node.Int;
 import org.suite.node.Node;
-import org.suite.node.Tree;
-import org.suite.node.Vector;
 
 public class FunctionInstructionExecutor extends InstructionExecutor {
 
-	private static final Atom CONS = Atom.create("CONS");
-	private static final Atom EMPTY = Atom.create("EMPTY");
-	private static final Atom FFLUSH = Atom.create("FFLUSH");
-	private static final Atom FGETC = Atom.create("FGETC");
-	private static final Atom FPUTC = Atom.create("FPUTC");
-	private static final Atom HEAD = Atom.create("HEAD");
-	private static final Atom ISTREE = Atom.create("IS-TREE");
-	private static final Atom ISVECTOR = Atom.create("IS-VECTOR");
-	private static final Atom LOG = Atom.create("LOG");
-	private static final Atom LOG2 = Atom.create("LOG2");
-	private static final Atom TAIL = Atom.create("TAIL");
-	private static final Atom VCONCAT = Atom.create("VCONCAT");
-	private static final Atom VELEM = Atom.create("VELEM");
-	private static final Atom VEMPTY = Atom.create("VEMPTY");
-	private static final Atom VHEAD = Atom.create("VHEAD");
-	private static final Atom VRANGE = Atom.create("VRANGE");
-	private static final Atom VTAIL = Atom.create("VTAIL");
-
-	private InputStream in = System.in;
-	private PrintStream out = System.out;
-	private StringBuilder inBuffer = new StringBuilder();
-	private StringBuilder outBuffer = new StringBuilder();
+	private static final Atom consAtom = Atom.create("CONS");
+
+	private SysCalls registry;
+	private SysCall sysCalls[];
+	private Node sysParameters[] = new Node[0];
+
+	private InputWindow in = new InputWindow(System.in);
+	private OutputWindow out = new OutputWindow(System.out);
 
 	public FunctionInstructionExecutor(Node node) {
-		super(node);
+		this(node, true);
+	}
+
+	public FunctionInstructionExecutor(Node node, boolean isFused) {
+		this(node, isFused, new SysCalls());
+	}
+
+	public FunctionInstructionExecutor(Node node, boolean isFused,
+			SysCalls registry) {
+		super(node, isFused);
+		this.registry = registry;
+		sysCalls = registry.getSysCalls();
+
+		for (Instruction insn : instructions)
+			if (insn.insn == Insn.SYS___________) {
+				Node node1 = constantPool[insn.op2];
+				int index = registry.getIndex(node1);
+
+				if (insn.op3 == registry.getArity(index))
+					insn.op2 = index;
+				else
+					throw new RuntimeException("Wrong number of parameters for "
+							+ node1);
+
+				if (insn.op3 > sysParameters.length)
+					sysParameters = new Node[insn.op3];
+			}
 	}
 
 	@Override
-	protected int[] execute(Closure current, Instruction insn,
-			Closure callStack[], int csp, Object dataStack[], int dsp) {
+	protected void execute(Closure current, Instruction insn,
+			CallStack callStack, Stack<Node> dataStack) {
 		Frame frame = current.frame;
 		Object regs[] = frame != null ? frame.registers : null;
 
 		switch (insn.insn) {
 		case SYS___________:
-			dsp -= insn.op3;
-			regs[insn.op1] = sys(constantPool.get(insn.op2), dataStack, dsp);
+			regs[insn.op1] = sys(sysCalls[insn.op2], insn.op3, dataStack);
 			break;
 		default:
-			return super.execute(current, insn, callStack, csp, dataStack, dsp);
+			super.execute(current, insn, callStack, dataStack);
 		}
-
-		return new int[] { csp, dsp };
 	}
 
-	private Node sys(Node command, Object dataStack[], int dsp) {
-		Node result;
-
-		if (command == CONS) {
-			Node left = (Node) dataStack[dsp + 1];
-			Node right = (Node) dataStack[dsp];
-			result = new Tree(TermOp.AND___, left, right);
-		} else if (command == EMPTY)
-			result = Atom.nil;
-		else if (command == FFLUSH) {
-			out.print(outBuffer.toString());
-			outBuffer.setLength(0);
-			result = (Node) dataStack[dsp];
-		} else if (command == FGETC)
-			try {
-				int p = ((Int) dataStack[dsp]).getNumber();
-
-				while (p >= inBuffer.length()) {
-					int c = in.read();
-					if (c >= 0)
-						inBuffer.append((char) c);
-					else
-						break;
+	@Override
+	protected Handler link(Instruction insn) {
+		switch (insn.insn) {
+		case SYS___________:
+			final SysCall sysCall = sysCalls[insn.op2];
+			return new Handler(insn) {
+				protected void handle() {
+					current.frame.registers[op1] = sys(sysCall, op3, dataStack);
 				}
+			};
+		default:
+			return super.link(insn);
+		}
+	}
 
-				int ch = p < inBuffer.length() ? inBuffer.charAt(p) : -1;
-				result = Int.create(ch);
-			} catch (IOException ex) {
-				throw new RuntimeException(ex);
-			}
-		else if (command == FPUTC) {
-			int p = ((Int) dataStack[dsp + 2]).getNumber();
-			int c = ((Int) dataStack[dsp + 1]).getNumber();
-			result = (Node) dataStack[dsp];
-
-			if (p >= outBuffer.length())
-				outBuffer.setLength(p + 1);
-
-			outBuffer.setCharAt(p, (char) c);
-		} else if (command == HEAD)
-			result = Tree.decompose((Node) dataStack[dsp]).getLeft();
-		else if (command == ISTREE)
-			result = a(Tree.decompose((Node) dataStack[dsp]) != null);
-		else if (command == ISVECTOR)
-			result = a(dataStack[dsp] instanceof Vector);
-		else if (command == LOG)
-			System.err.println(result = (Node) dataStack[dsp]);
-		else if (command == LOG2) {
-			System.err.println((Node) dataStack[dsp + 1]);
-			result = (Node) dataStack[dsp];
-		} else if (command == TAIL)
-			result = Tree.decompose((Node) dataStack[dsp]).getRight();
-		else if (command == VCONCAT) {
-			Vector left = (Vector) dataStack[dsp + 1];
-			Vector right = (Vector) dataStack[dsp];
-			result = Vector.concat(left, right);
-		} else if (command == VELEM)
-			result = new Vector((Node) dataStack[dsp]);
-		else if (command == VEMPTY)
-			result = Vector.EMPTY;
-		else if (command == VHEAD)
-			result = ((Vector) dataStack[dsp]).get(0);
-		else if (command == VRANGE) {
-			Vector vector = (Vector) dataStack[dsp + 2];
-			int s = ((Int) dataStack[dsp + 1]).getNumber();
-			int e = ((Int) dataStack[dsp]).getNumber();
-			return vector.subVector(s, e);
-		} else if (command == VTAIL)
-			result = ((Vector) dataStack[dsp]).subVector(1, 0);
+	@Override
+	protected String getAllocation(Instruction insn) {
+		if (insn.insn == Insn.SYS___________)
+			return registry.getAtom(insn.op2) == consAtom ? "Tree" : null;
 		else
-			throw new RuntimeException("Unknown system call " + command);
+			return super.getAllocation(insn);
+	}
+
+	// Pops parameters in applied order; the last one is on top of the stack
+	private Node sys(SysCall sysCall, int arity, Stack<Node> dataStack) {
+		int sp = dataStack.size() - arity;
+		dataStack.setSize(sp);
+
+		for (int i = 0; i < arity; i++)
+			sysParameters[i] = dataStack.get(sp + arity - 1 - i);
+
+		return sysCall.call(this, sysParameters);
+	}
 
-		return result;
+	void fflush() {
+		try {
+			out.flush();
+		} catch (IOException ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
+	int fgetc(int p) {
+		try {
+			return in.get(p);
+		} catch (IOException ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
+	void fputc(int p, int c) {
+		try {
+			out.put(p, c);
+		} catch (IOException ex) {
+			throw new RuntimeException(ex);
+		}
 	}
 
 	public void setIn(InputStream in) {
-		this.in = in;
+		this.in = new InputWindow(in);
 	}
 
 	public void setOut(PrintStream out) {
-		this.out = out;
+		this.out = new OutputWindow(out);
 	}
 
 }
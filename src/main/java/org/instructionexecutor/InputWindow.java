@@ -0,0 +1,79 @@
+package org.instructionexecutor;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Random access to an input stream by byte position, reading through a
+ * fixed-size buffer. Only the most recent positions are kept; older ones are
+ * discarded, or read again if the input is a file.
+ */
+public class InputWindow {
+
+	private static final int windowSize = 1 << 16;
+	private static final int windowMask = windowSize - 1;
+
+	// Reads at most half a window, to keep recent positions addressable
+	private static final int readSize = windowSize / 2;
+
+	private ReadableByteChannel channel;
+	private long channelStart = -1;
+	private byte window[] = new byte[windowSize];
+	private ByteBuffer buffer = ByteBuffer.wrap(window);
+	private int end; // Number of bytes read so far
+	private boolean isEof;
+
+	public InputWindow(InputStream in) {
+		if (in instanceof FileInputStream)
+			channel = ((FileInputStream) in).getChannel();
+		else
+			channel = Channels.newChannel(in);
+	}
+
+	/**
+	 * Returns the byte at the specified position, or -1 if the position is
+	 * beyond the end of input.
+	 */
+	public int get(int p) throws IOException {
+		while (p >= end && !isEof)
+			read();
+
+		if (p >= end)
+			return -1;
+		else if (p >= end - windowSize)
+			return window[p & windowMask] & 0xFF;
+		else
+			return reread(p);
+	}
+
+	private void read() throws IOException {
+		if (channelStart < 0 && channel instanceof FileChannel)
+			channelStart = ((FileChannel) channel).position();
+
+		int offset = end & windowMask;
+		buffer.limit(Math.min(offset + readSize, windowSize));
+		buffer.position(offset);
+
+		int n = channel.read(buffer);
+		if (n >= 0)
+			end += n;
+		else
+			isEof = true;
+	}
+
+	private int reread(int p) throws IOException {
+		if (channel instanceof FileChannel) {
+			ByteBuffer b = ByteBuffer.allocate(1);
+			((FileChannel) channel).read(b, channelStart + p);
+			return b.get(0) & 0xFF;
+		} else
+			throw new RuntimeException("Input position " + p
+					+ " is no longer buffered");
+	}
+
+}
@@ -1,12 +1,19 @@
 package org.instructionexecutor;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
+import org.instructionexecutor.InstructionExecutorUtil.CallStack;
 import org.instructionexecutor.InstructionExecutorUtil.Closure;
+import org.instructionexecutor.InstructionExecutorUtil.Copier;
 import org.instructionexecutor.InstructionExecutorUtil.Frame;
 import org.instructionexecutor.InstructionExecutorUtil.Instruction;
+import org.instructionexecutor.InstructionExecutorUtil.Stack;
+import org.instructionexecutor.InstructionExecutorUtil.StackOverflowException;
+import org.instructionexecutor.InstructionExecutorUtil.Thunk;
 import org.parser.Operator;
 import org.suite.doer.TermParser.TermOp;
 import org.suite.node.Atom;
@@ -25,12 +32,14 @@ public class InstructionExecutor {
 	private static final BiMap<Insn, String> insnNames = HashBiMap.create();
 	private static final Map<Operator, Insn> evalInsns = Util.createHashMap();
 
-	protected BiMap<Integer, Node> constantPool = HashBiMap.create();
+	protected Node constantPool[];
 
-	private static final Atom trueAtom = Atom.create("true");
-	private static final Atom falseAtom = Atom.create("false");
+	protected static final Atom trueAtom = Atom.create("true");
+	protected static final Atom falseAtom = Atom.create("false");
 
-	private static final int stackSize = 4096;
+	protected static final int defaultStackLimit = 1 << 20;
+
+	private static final TermOp termOps[] = TermOp.values();
 
 	static {
 		for (Insn insn : Insn.values())
@@ -50,11 +59,13 @@ public class InstructionExecutor {
 	}
 
 	protected enum Insn {
+		ASSIGNCALLCLOS("ASSIGN-CALL-CLOSURE"), //
 		ASSIGNCLOSURE_("ASSIGN-CLOSURE"), //
 		ASSIGNCONST___("ASSIGN-CONSTANT"), //
 		ASSIGNFRAMEREG("ASSIGN-FRAME-REG"), //
 		ASSIGNGLOBAL__("ASSIGN-GLOBAL"), //
 		ASSIGNINT_____("ASSIGN-INT"), //
+		ASSIGNTHUNK___("ASSIGN-THUNK"), //
 		BIND__________("BIND"), //
 		BINDUNDO______("BIND-UNDO"), //
 		CALL__________("CALL"), //
@@ -78,9 +89,19 @@ public class InstructionExecutor {
 		EVALMUL_______("EVAL-MUL"), //
 		EVALNE________("EVAL-NE"), //
 		EVALSUB_______("EVAL-SUB"), //
+		FORK__________("FORK"), //
+		FORKALT_______("FORK-ALT"), //
+		FORKEND_______("FORK-END"), //
 		FORMTREE0_____("FORM-TREE0"), //
 		FORMTREE1_____("FORM-TREE1"), //
+		FORMTREE______("FORM-TREE"), //
 		IFFALSE_______("IF-FALSE"), //
+		IFFALSEEQ_____("IF-FALSE-EQ"), //
+		IFFALSEGE_____("IF-FALSE-GE"), //
+		IFFALSEGT_____("IF-FALSE-GT"), //
+		IFFALSELE_____("IF-FALSE-LE"), //
+		IFFALSELT_____("IF-FALSE-LT"), //
+		IFFALSENE_____("IF-FALSE-NE"), //
 		IFGE__________("IF-GE"), //
 		IFGT__________("IF-GT"), //
 		IFLE__________("IF-LE"), //
@@ -94,6 +115,7 @@ public class InstructionExecutor {
 		POP___________("POP"), //
 		PROVESYS______("PROVE-SYS"), //
 		PUSH__________("PUSH"), //
+		PUSH2_________("PUSH2"), //
 		PUSHCONST_____("PUSH-CONSTANT"), //
 		REMARK________("REMARK"), //
 		RETURN________("RETURN"), //
@@ -101,6 +123,7 @@ public class InstructionExecutor {
 		STOREGLOBAL___("STORE-GLOBAL"), //
 		SYS___________("SYS"), //
 		TOP___________("TOP"), //
+		YIELD_________("YIELD"), //
 		;
 
 		String name;
@@ -110,25 +133,333 @@ public class InstructionExecutor {
 		}
 	};
 
-	private Instruction instructions[];
+	protected Instruction instructions[];
+	private int stackLimit = defaultStackLimit;
+
+	// Threaded-code engine states, accessed by the linked handlers. The
+	// current closure is the executing context, updated in place by calls.
+	protected Closure current;
+	protected CallStack callStack;
+	protected Stack<Node> dataStack;
+
+	private Handler handlers[];
+	private JitCompiler.Code code;
+	private Profiler profiler;
+	private Node sources[]; // Compiled code listing
+	private boolean isExited, isSuspended;
+	private Node exitValue;
+
+	/**
+	 * An instruction pre-linked to its implementation. The threaded-code engine
+	 * dispatches each instruction by a single virtual call to its handler.
+	 */
+	protected abstract class Handler {
+		protected final int op1, op2, op3;
+
+		protected Handler(Instruction insn) {
+			op1 = insn.op1;
+			op2 = insn.op2;
+			op3 = insn.op3;
+		}
+
+		protected abstract void handle();
+	}
 
 	public InstructionExecutor(Node node) {
+		this(node, true);
+	}
+
+	/**
+	 * @param isFused
+	 *            whether common instruction sequences are replaced by
+	 *            superinstructions after extraction.
+	 */
+	public InstructionExecutor(Node node, boolean isFused) {
 		Tree tree;
 		List<Instruction> list = new ArrayList<Instruction>();
+		List<Node> sourceList = new ArrayList<Node>();
 		InstructionExtractor extractor = new InstructionExtractor();
 
 		while ((tree = Tree.decompose(node, TermOp.AND___)) != null) {
 			Instruction instruction = extractor.extract(tree.getLeft());
+			instruction.sourceIp = list.size();
 			list.add(instruction);
+			sourceList.add(tree.getLeft());
 			node = tree.getRight();
 		}
 
 		instructions = list.toArray(new Instruction[list.size()]);
+		sources = sourceList.toArray(new Node[sourceList.size()]);
+		constantPool = extractor.getConstantPool();
+		unboxIntegers();
+
+		if (isFused)
+			instructions = new InstructionFuser(instructions, constantPool)
+					.fuse();
+
+		findTailCalls();
+	}
+
+	/**
+	 * Creates an executor of the same program, sharing the extracted
+	 * instructions. The engine states are not shared.
+	 */
+	protected InstructionExecutor(InstructionExecutor executor) {
+		instructions = executor.instructions;
+		sources = executor.sources;
+		constantPool = executor.constantPool;
+		stackLimit = executor.stackLimit;
+	}
+
+	/**
+	 * Marks closure calls whose results are returned immediately. These do
+	 * not push a return address, so that the callee returns to the caller of
+	 * the current function directly, in constant stack space.
+	 * 
+	 * A thunk forced by such a call is not updated with its result, since
+	 * nothing returns to the forcing instruction.
+	 */
+	private void findTailCalls() {
+		for (int ip = 0; ip < instructions.length; ip++) {
+			Instruction insn = instructions[ip];
+
+			if (insn.insn == Insn.CALLCLOSURE___
+					|| insn.insn == Insn.CALLCLOSUREIFR
+					|| insn.insn == Insn.ASSIGNCALLCLOS)
+				insn.isTailCall = isReturned(ip + 1, insn.op1);
+		}
+	}
+
+	// Follows register copies and jumps, as in the branches of if-then-else,
+	// to see whether the register is returned without other effects
+	private boolean isReturned(int ip, int reg) {
+		for (int n = 0; n < 16 && ip < instructions.length; n++) {
+			Instruction insn = instructions[ip];
+
+			switch (insn.insn) {
+			case ASSIGNFRAMEREG:
+				if (insn.op2 == 0 && insn.op3 == reg) {
+					reg = insn.op1;
+					ip++;
+				} else
+					return false;
+				break;
+			case JUMP__________:
+				ip = insn.op1;
+				break;
+			case LABEL_________:
+			case REMARK________:
+				ip++;
+				break;
+			case RETURNVALUE___:
+				return insn.op1 == reg;
+			default:
+				return false;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Finds registers that are only assigned by integer arithmetic and only
+	 * read by integer evaluation. These are kept unboxed in the integer bank
+	 * of the frame; registers escaping elsewhere stay boxed.
+	 * 
+	 * A register read from an outer frame (ASSIGN-FRAME-REG) is traced to the
+	 * frame through the closure or call that entered the current frame. If
+	 * that is ambiguous, the register number stays boxed in all frames.
+	 */
+	private void unboxIntegers() {
+		int scopes[] = new int[instructions.length];
+		Map<Integer, boolean[]> boxedByScope = Util.createHashMap();
+		Map<Integer, Integer> parents = Util.createHashMap();
+		Set<Integer> framedRegs = new HashSet<Integer>();
+		List<Integer> enters = new ArrayList<Integer>();
+		boolean isIndirectCall = false;
+
+		for (int ip = 0; ip < instructions.length; ip++) {
+			Instruction insn = instructions[ip];
+
+			if (insn.insn == Insn.ENTER_________) {
+				enters.add(ip);
+				boxedByScope.put(ip, new boolean[insn.op1]);
+			}
+
+			scopes[ip] = !enters.isEmpty() ? enters.get(enters.size() - 1)
+					: -1;
+
+			if (insn.insn == Insn.LEAVE_________ && !enters.isEmpty())
+				enters.remove(enters.size() - 1);
+		}
+
+		for (int ip = 0; ip < instructions.length; ip++) {
+			Instruction insn = instructions[ip];
+			int target;
+
+			if (insn.insn == Insn.ASSIGNCLOSURE_
+					|| insn.insn == Insn.ASSIGNTHUNK___)
+				target = insn.op2;
+			else if (insn.insn == Insn.CALLCONST_____)
+				target = insn.op1;
+			else {
+				isIndirectCall |= insn.insn == Insn.CALL__________;
+				continue;
+			}
+
+			Integer parent = parents.get(target);
+			if (parent == null)
+				parents.put(target, scopes[ip]);
+			else if (parent != scopes[ip])
+				parents.put(target, -1); // Ambiguous
+		}
+
+		for (int ip = 0; ip < instructions.length; ip++) {
+			Instruction insn = instructions[ip];
+			boolean boxed[] = boxedByScope.get(scopes[ip]);
+
+			if (insn.insn == Insn.ASSIGNFRAMEREG && insn.op2 != 0) {
+				int scope = scopes[ip];
+				for (int i = insn.op2; scope >= 0 && i < 0; i++) {
+					Integer parent = parents.get(scope);
+					scope = !isIndirectCall && parent != null ? parent : -1;
+				}
+
+				box(boxed, insn.op1);
+				if (scope >= 0)
+					box(boxedByScope.get(scope), insn.op3);
+				else
+					framedRegs.add(insn.op3);
+				continue;
+			}
+
+			switch (insn.insn) {
+			case ASSIGNINT_____:
+			case CUTBEGIN______:
+			case CUTEND________:
+			case CUTFAIL_______:
+			case EVALADD_______:
+			case EVALDIV_______:
+			case EVALMOD_______:
+			case EVALMUL_______:
+			case EVALSUB_______:
+				break;
+			case EVALEQ________:
+			case EVALGE________:
+			case EVALGT________:
+			case EVALLE________:
+			case EVALLT________:
+			case EVALNE________:
+			case ASSIGNCLOSURE_:
+			case ASSIGNCONST___:
+			case ASSIGNTHUNK___:
+			case CALL__________:
+			case CALLCONST_____:
+			case EXIT__________:
+			case FORK__________:
+			case FORKALT_______:
+			case FORKEND_______:
+			case NEWNODE_______:
+			case POP___________:
+			case PROVESYS______:
+			case PUSH__________:
+			case RETURNVALUE___:
+			case SYS___________:
+			case TOP___________:
+			case YIELD_________:
+				box(boxed, insn.op1);
+				break;
+			case ASSIGNFRAMEREG:
+				box(boxed, insn.op1);
+				box(boxed, insn.op3);
+				break;
+			case CALLCLOSURE___:
+			case CALLCLOSUREIFR:
+			case FORMTREE0_____:
+			case BIND__________:
+				box(boxed, insn.op1);
+				box(boxed, insn.op2);
+				break;
+			case FORMTREE1_____:
+			case IFFALSE_______:
+				box(boxed, insn.op2);
+				break;
+			case IFNOTEQUALS___:
+				box(boxed, insn.op2);
+				box(boxed, insn.op3);
+				break;
+			case BINDUNDO______:
+			case ENTER_________:
+			case EXITVALUE_____:
+			case JUMP__________:
+			case LABEL_________:
+			case LEAVE_________:
+			case LOG___________:
+			case PUSHCONST_____:
+			case REMARK________:
+			case RETURN________:
+				break;
+			default: // Unknown usage of operands
+				box(boxed, insn.op1);
+				box(boxed, insn.op2);
+				box(boxed, insn.op3);
+			}
+		}
+
+		for (int ip = 0; ip < instructions.length; ip++) {
+			Instruction insn = instructions[ip];
+			boolean boxed[] = boxedByScope.get(scopes[ip]);
+
+			switch (insn.insn) {
+			case ASSIGNINT_____:
+			case CUTBEGIN______: // Cut point indices
+			case CUTEND________:
+			case CUTFAIL_______:
+				insn.isUnboxed1 = isUnboxed(boxed, framedRegs, insn.op1);
+				break;
+			case EVALADD_______:
+			case EVALDIV_______:
+			case EVALMOD_______:
+			case EVALMUL_______:
+			case EVALSUB_______:
+				insn.isUnboxed1 = isUnboxed(boxed, framedRegs, insn.op1);
+			case EVALEQ________:
+			case EVALGE________:
+			case EVALGT________:
+			case EVALLE________:
+			case EVALLT________:
+			case EVALNE________:
+				insn.isUnboxed2 = isUnboxed(boxed, framedRegs, insn.op2);
+				insn.isUnboxed3 = isUnboxed(boxed, framedRegs, insn.op3);
+				break;
+			default:
+				break;
+			}
+
+			if (insn.isUnboxed1 || insn.isUnboxed2 || insn.isUnboxed3) {
+				Instruction enter = instructions[scopes[ip]];
+				enter.op2 = enter.op1; // Allocates integer bank
+			}
+		}
+	}
+
+	private static void box(boolean boxed[], int reg) {
+		if (boxed != null && 0 <= reg && reg < boxed.length)
+			boxed[reg] = true;
+	}
+
+	private static boolean isUnboxed(boolean boxed[], Set<Integer> framedRegs,
+			int reg) {
+		return boxed != null && 0 <= reg && reg < boxed.length && !boxed[reg]
+				&& !framedRegs.contains(reg);
 	}
 
 	private class InstructionExtractor {
 		private List<Instruction> enters = new ArrayList<Instruction>();
 
+		// Only used for de-duplication; frozen into an array after extraction
+		private BiMap<Integer, Node> constantPool = HashBiMap.create();
+
 		private Instruction extract(Node node) {
 			List<Node> rs = new ArrayList<Node>(5);
 			Tree tree;
@@ -197,160 +528,853 @@ public class InstructionExecutor {
 			} else
 				return 0;
 		}
-	}
 
-	private int allocateInPool(Node node) {
-		Integer pointer = constantPool.inverse().get(node);
+		private int allocateInPool(Node node) {
+			Integer pointer = constantPool.inverse().get(node);
 
-		if (pointer == null) {
-			int pointer1 = constantPool.size();
-			constantPool.put(pointer1, node);
-			return pointer1;
-		} else
-			return pointer;
+			if (pointer == null) {
+				int pointer1 = constantPool.size();
+				constantPool.put(pointer1, node);
+				return pointer1;
+			} else
+				return pointer;
+		}
+
+		private Node[] getConstantPool() {
+			Node pool[] = new Node[constantPool.size()];
+			for (int i = 0; i < pool.length; i++)
+				pool[i] = constantPool.get(i);
+			return pool;
+		}
 	}
 
 	public Node execute() {
+		if (profiler != null)
+			return executeThreaded();
+
 		Closure current = new Closure(null, 0);
-		Closure callStack[] = new Closure[stackSize];
-		Node dataStack[] = new Node[stackSize];
-		int i, csp = 0, dsp = 0;
-
-		for (;;) {
-			Frame frame = current.frame;
-			Node regs[] = frame != null ? frame.registers : null;
-			int ip = current.ip++;
-			Instruction insn = instructions[ip];
+		CallStack callStack = new CallStack(stackLimit);
+		Stack<Node> dataStack = new Stack<Node>(stackLimit);
+		int i;
 
-			// org.util.LogUtil.info("TRACE", ip + "> " + insn);
+		try {
+			for (;;) {
+				Frame frame = current.frame;
+				Node regs[] = frame != null ? frame.registers : null;
+				int ip = current.ip++;
+				Instruction insn = instructions[ip];
 
-			switch (insn.insn) {
-			case ASSIGNCLOSURE_:
-				regs[insn.op1] = new Closure(frame, insn.op2);
-				break;
-			case ASSIGNFRAMEREG:
-				i = insn.op2;
-				while (i++ < 0)
-					frame = frame.previous;
-				regs[insn.op1] = frame.registers[insn.op3];
-				break;
-			case ASSIGNCONST___:
-				regs[insn.op1] = constantPool.get(insn.op2);
-				break;
-			case ASSIGNINT_____:
-				regs[insn.op1] = i(insn.op2);
-				break;
-			case CALL__________:
-				callStack[csp++] = current;
-				current = new Closure(frame, g(regs[insn.op1]));
-				break;
-			case CALLCONST_____:
-				callStack[csp++] = current;
-				current = new Closure(frame, insn.op1);
-				break;
-			case CALLCLOSURE___:
-				callStack[csp++] = current;
-				current = ((Closure) regs[insn.op2]).clone();
-				break;
-			case ENTER_________:
-				current.frame = new Frame(frame, insn.op1);
-				break;
-			case EVALADD_______:
-				regs[insn.op1] = i(g(regs[insn.op2]) + g(regs[insn.op3]));
-				break;
-			case EVALDIV_______:
-				regs[insn.op1] = i(g(regs[insn.op2]) / g(regs[insn.op3]));
-				break;
-			case EVALEQ________:
-				regs[insn.op1] = a(g(regs[insn.op2]) == g(regs[insn.op3]));
-				break;
-			case EVALGE________:
-				regs[insn.op1] = a(g(regs[insn.op2]) >= g(regs[insn.op3]));
-				break;
-			case EVALGT________:
-				regs[insn.op1] = a(g(regs[insn.op2]) > g(regs[insn.op3]));
-				break;
-			case EVALLE________:
-				regs[insn.op1] = a(g(regs[insn.op2]) <= g(regs[insn.op3]));
-				break;
-			case EVALLT________:
-				regs[insn.op1] = a(g(regs[insn.op2]) < g(regs[insn.op3]));
-				break;
-			case EVALNE________:
-				regs[insn.op1] = a(g(regs[insn.op2]) != g(regs[insn.op3]));
-				break;
-			case EVALMOD_______:
-				regs[insn.op1] = i(g(regs[insn.op2]) % g(regs[insn.op3]));
-				break;
-			case EVALMUL_______:
-				regs[insn.op1] = i(g(regs[insn.op2]) * g(regs[insn.op3]));
-				break;
-			case EVALSUB_______:
-				regs[insn.op1] = i(g(regs[insn.op2]) - g(regs[insn.op3]));
-				break;
-			case EXIT__________:
-				return (Node) regs[insn.op1];
-			case EXITVALUE_____:
-				return constantPool.get(insn.op1);
-			case FORMTREE0_____:
-				Node left = (Node) regs[insn.op1];
-				Node right = (Node) regs[insn.op2];
-				insn = instructions[current.ip++];
-				String operator = ((Atom) constantPool.get(insn.op1)).getName();
-				regs[insn.op2] = new Tree(TermOp.find(operator), left, right);
-				break;
-			case IFFALSE_______:
-				if (regs[insn.op2] != trueAtom)
+				switch (insn.insn) {
+				case ASSIGNCALLCLOS:
+					Closure closure = new Closure(frame, insn.op2);
+					regs[insn.op3] = closure;
+					if (!insn.isTailCall)
+						callStack.push(current);
+					current.ip = insn.op2;
+					break;
+				case ASSIGNCLOSURE_:
+					regs[insn.op1] = new Closure(frame, insn.op2);
+					break;
+				case ASSIGNFRAMEREG:
+					i = insn.op2;
+					while (i++ < 0)
+						frame = frame.previous;
+					regs[insn.op1] = frame.registers[insn.op3];
+					break;
+				case ASSIGNCONST___:
+					regs[insn.op1] = constantPool[insn.op2];
+					break;
+				case ASSIGNINT_____:
+					if (insn.isUnboxed1)
+						frame.ints[insn.op1] = insn.op2;
+					else
+						regs[insn.op1] = i(insn.op2);
+					break;
+				case CALL__________:
+					callStack.push(current);
+					current.ip = g(regs[insn.op1]);
+					break;
+				case CALLCONST_____:
+					callStack.push(current);
 					current.ip = insn.op1;
-				break;
-			case IFNOTEQUALS___:
-				if (regs[insn.op2] != regs[insn.op3])
+					break;
+				case ASSIGNTHUNK___:
+					regs[insn.op1] = new Thunk(frame, insn.op2);
+					break;
+				case CALLCLOSURE___:
+					if (!insn.isTailCall)
+						callStack.push(current);
+					closure = (Closure) regs[insn.op2];
+					current.frame = closure.frame;
+					current.ip = closure.ip;
+					break;
+				case CALLCLOSUREIFR:
+					Node node = regs[insn.op2];
+					Node result = node instanceof Thunk ? ((Thunk) node).result
+							: node;
+					if (result == null) {
+						if (!insn.isTailCall)
+							callStack.push(current);
+						closure = (Closure) node;
+						current.frame = closure.frame;
+						current.ip = closure.ip;
+					} else
+						regs[insn.op1] = result;
+					break;
+				case ENTER_________:
+					current.frame = new Frame(frame, insn.op1, insn.op2);
+					break;
+				case EVALADD_______:
+					i(frame, insn, g2(frame, insn) + g3(frame, insn));
+					break;
+				case EVALDIV_______:
+					i(frame, insn, g2(frame, insn) / g3(frame, insn));
+					break;
+				case EVALEQ________:
+					regs[insn.op1] = a(g2(frame, insn) == g3(frame, insn));
+					break;
+				case EVALGE________:
+					regs[insn.op1] = a(g2(frame, insn) >= g3(frame, insn));
+					break;
+				case EVALGT________:
+					regs[insn.op1] = a(g2(frame, insn) > g3(frame, insn));
+					break;
+				case EVALLE________:
+					regs[insn.op1] = a(g2(frame, insn) <= g3(frame, insn));
+					break;
+				case EVALLT________:
+					regs[insn.op1] = a(g2(frame, insn) < g3(frame, insn));
+					break;
+				case EVALNE________:
+					regs[insn.op1] = a(g2(frame, insn) != g3(frame, insn));
+					break;
+				case EVALMOD_______:
+					i(frame, insn, g2(frame, insn) % g3(frame, insn));
+					break;
+				case EVALMUL_______:
+					i(frame, insn, g2(frame, insn) * g3(frame, insn));
+					break;
+				case EVALSUB_______:
+					i(frame, insn, g2(frame, insn) - g3(frame, insn));
+					break;
+				case EXIT__________:
+					return (Node) regs[insn.op1];
+				case EXITVALUE_____:
+					return constantPool[insn.op1];
+				case FORMTREE0_____:
+					Node left = (Node) regs[insn.op1];
+					Node right = (Node) regs[insn.op2];
+					insn = instructions[current.ip++];
+					String operator = ((Atom) constantPool[insn.op1]).getName();
+					regs[insn.op2] = new Tree(TermOp.find(operator), left, right);
+					break;
+				case FORMTREE______:
+					regs[insn.op3] = new Tree(termOps[insn.op4], regs[insn.op1],
+							regs[insn.op2]);
+					break;
+				case IFFALSE_______:
+					if (regs[insn.op2] != trueAtom)
+						current.ip = insn.op1;
+					break;
+				case IFFALSEEQ_____:
+					if (!c(regs, insn, g2(frame, insn) == g3(frame, insn)))
+						current.ip = insn.op1;
+					break;
+				case IFFALSEGE_____:
+					if (!c(regs, insn, g2(frame, insn) >= g3(frame, insn)))
+						current.ip = insn.op1;
+					break;
+				case IFFALSEGT_____:
+					if (!c(regs, insn, g2(frame, insn) > g3(frame, insn)))
+						current.ip = insn.op1;
+					break;
+				case IFFALSELE_____:
+					if (!c(regs, insn, g2(frame, insn) <= g3(frame, insn)))
+						current.ip = insn.op1;
+					break;
+				case IFFALSELT_____:
+					if (!c(regs, insn, g2(frame, insn) < g3(frame, insn)))
+						current.ip = insn.op1;
+					break;
+				case IFFALSENE_____:
+					if (!c(regs, insn, g2(frame, insn) != g3(frame, insn)))
+						current.ip = insn.op1;
+					break;
+				case IFNOTEQUALS___:
+					if (regs[insn.op2] != regs[insn.op3])
+						current.ip = insn.op1;
+					break;
+				case JUMP__________:
 					current.ip = insn.op1;
-				break;
-			case JUMP__________:
-				current.ip = insn.op1;
-				break;
-			case LABEL_________:
-				break;
-			case LOG___________:
-				LogUtil.info("EXEC", constantPool.get(insn.op1).toString());
-				break;
-			case NEWNODE_______:
-				regs[insn.op1] = new Reference();
-				break;
-			case PUSH__________:
-				dataStack[dsp++] = regs[insn.op1];
-				break;
-			case PUSHCONST_____:
-				dataStack[dsp++] = i(insn.op1);
-				break;
-			case POP___________:
-				regs[insn.op1] = dataStack[--dsp];
-				break;
-			case REMARK________:
-				break;
-			case RETURN________:
-				current = callStack[--csp];
-				break;
-			case RETURNVALUE___:
-				Node returnValue = regs[insn.op1]; // Saves return value
-				current = callStack[--csp];
-				current.frame.registers[instructions[current.ip - 1].op1] = returnValue;
-				break;
-			case TOP___________:
-				regs[insn.op1] = dataStack[dsp + insn.op2];
-				break;
-			default:
-				int pair[] = execute( //
-						current, insn, callStack, csp, dataStack, dsp);
-				csp = pair[0];
-				dsp = pair[1];
+					break;
+				case LABEL_________:
+					break;
+				case LOG___________:
+					LogUtil.info("EXEC", constantPool[insn.op1].toString());
+					break;
+				case NEWNODE_______:
+					regs[insn.op1] = new Reference();
+					break;
+				case PUSH__________:
+					dataStack.push(regs[insn.op1]);
+					break;
+				case PUSH2_________:
+					dataStack.push(regs[insn.op1]);
+					dataStack.push(regs[insn.op2]);
+					break;
+				case PUSHCONST_____:
+					dataStack.push(i(insn.op1));
+					break;
+				case POP___________:
+					regs[insn.op1] = dataStack.pop();
+					break;
+				case REMARK________:
+					break;
+				case RETURN________:
+					callStack.pop(current);
+					break;
+				case RETURNVALUE___:
+					Node returnValue = regs[insn.op1]; // Saves return value
+					callStack.pop(current);
+					returnValue(current, returnValue);
+					break;
+				case TOP___________:
+					regs[insn.op1] = dataStack.get(dataStack.size() + insn.op2);
+					break;
+				default:
+					execute(current, insn, callStack, dataStack);
+				}
 			}
+		} catch (StackOverflowException ex) {
+			throw new StackOverflowException(current.ip - 1);
 		}
 	}
 
-	protected int[] execute(Closure current, Instruction insn,
-			Closure callStack[], int csp, Object dataStack[], int dsp) {
+	/**
+	 * Executes the instructions using the threaded-code engine. Each
+	 * instruction is linked to its handler once, before the first execution.
+	 */
+	public Node executeThreaded() {
+		link();
+		start();
+		return resume();
+	}
+
+	/**
+	 * Continues the threaded-code engine after it is suspended, until the
+	 * program exits or is suspended again.
+	 * 
+	 * @return the exit value, or the value passed to suspend().
+	 */
+	protected Node resume() {
+		isExited = isSuspended = false;
+
+		try {
+			while (!isExited)
+				handlers[current.ip++].handle();
+		} catch (StackOverflowException ex) {
+			throw new StackOverflowException(current.ip - 1);
+		}
+
+		if (isSuspended) { // Keeps engine states for resuming
+			Node result = exitValue;
+			exitValue = null;
+			return result;
+		} else
+			return finish();
+	}
+
+	/**
+	 * Stops the threaded-code engine after the current instruction, so that
+	 * it could be resumed later.
+	 */
+	protected void suspend(Node value) {
+		exitValue = value;
+		isExited = isSuspended = true;
+	}
+
+	protected boolean isSuspended() {
+		return isSuspended;
+	}
+
+	protected void exit(Node value) {
+		exitValue = value;
+		isExited = true;
+	}
+
+	/**
+	 * Copies the threaded-code engine states into another executor of the
+	 * same program, which would then resume from the specified instruction
+	 * independently of this one.
+	 */
+	protected void copyStates(InstructionExecutor executor, Copier copier,
+			int ip) {
+		executor.link();
+		executor.start();
+		executor.current = new Closure(copier.copy(current.frame), ip);
+
+		for (int i = 0; i < callStack.size(); i++) {
+			Frame frame = copier.copy(callStack.getFrame(i));
+			executor.callStack.push(new Closure(frame, callStack.getIp(i)));
+		}
+
+		for (int i = 0; i < dataStack.size(); i++)
+			executor.dataStack.push(copier.copy(dataStack.get(i)));
+	}
+
+	/**
+	 * Executes the instructions by translating them into JVM byte codes first.
+	 * Instructions not supported by the translation are run by their
+	 * threaded-code handlers.
+	 */
+	public Node executeJit() {
+		if (profiler != null)
+			return executeThreaded();
+
+		link();
+
+		if (code == null)
+			code = new JitCompiler(instructions, constantPool, trueAtom,
+					falseAtom).compile();
+
+		start();
+
+		try {
+			while (!isExited) {
+				Frame frame = current.frame;
+				Node regs[] = frame != null ? frame.registers : null;
+				int ints[] = frame != null ? frame.ints : null;
+				int ip = code.run(regs, ints, current.ip);
+				current.ip = ip + 1;
+				handlers[ip].handle();
+			}
+		} catch (StackOverflowException ex) {
+			throw new StackOverflowException(current.ip - 1);
+		}
+
+		return finish();
+	}
+
+	/**
+	 * Sets the maximum number of entries of each stack. Exceeding it throws a
+	 * StackOverflowException carrying the instruction pointer.
+	 */
+	public void setStackLimit(int stackLimit) {
+		this.stackLimit = stackLimit;
+	}
+
+	protected int getStackLimit() {
+		return stackLimit;
+	}
+
+	/**
+	 * Collects an execution profile into the specified profiler, or stops
+	 * profiling if it is null. Profiled programs are always run by the
+	 * threaded-code engine, whose handlers are then wrapped by counters; the
+	 * engines are not instrumented otherwise.
+	 */
+	public void setProfiler(Profiler profiler) {
+		this.profiler = profiler;
+		handlers = null;
+
+		if (profiler != null) {
+			String allocations[] = new String[instructions.length];
+			for (int ip = 0; ip < instructions.length; ip++)
+				allocations[ip] = getAllocation(instructions[ip]);
+			profiler.setProgram(instructions, sources, allocations);
+		}
+	}
+
+	/**
+	 * Returns the name of the node class the instruction allocates, or null.
+	 */
+	protected String getAllocation(Instruction insn) {
+		switch (insn.insn) {
+		case ASSIGNCALLCLOS:
+		case ASSIGNCLOSURE_:
+			return "Closure";
+		case ASSIGNTHUNK___:
+			return "Thunk";
+		case ENTER_________:
+			return "Frame";
+		case FORMTREE1_____:
+		case FORMTREE______:
+			return "Tree";
+		default:
+			return null;
+		}
+	}
+
+	private void call(Closure closure) {
+		current.frame = closure.frame;
+		current.ip = closure.ip;
+	}
+
+	/**
+	 * Stores the value returned to the calling instruction. A thunk forced by
+	 * the call is updated with the value, so it is evaluated only once.
+	 */
+	private void returnValue(Closure current, Node returnValue) {
+		Instruction insn = instructions[current.ip - 1];
+		Node regs[] = current.frame.registers;
+		regs[insn.op1] = returnValue;
+
+		if (insn.insn == Insn.CALLCLOSUREIFR) {
+			Thunk thunk = (Thunk) regs[insn.op2];
+			thunk.result = returnValue;
+			thunk.frame = null;
+		}
+	}
+
+	private void link() {
+		if (handlers == null) {
+			handlers = new Handler[instructions.length];
+			for (int ip = 0; ip < instructions.length; ip++)
+				if (profiler != null)
+					handlers[ip] = profile(ip, instructions[ip]);
+				else
+					handlers[ip] = link(instructions[ip]);
+		}
+	}
+
+	private Handler profile(final int ip, Instruction insn) {
+		final Handler handler = link(insn);
+		final Profiler profiler = this.profiler;
+
+		switch (insn.insn) {
+		case ASSIGNCALLCLOS:
+		case CALL__________:
+		case CALLCLOSURE___:
+		case CALLCLOSUREIFR:
+		case CALLCONST_____:
+			return new Handler(insn) {
+				protected void handle() {
+					profiler.count(ip);
+					handler.handle();
+					if (current.ip != ip + 1)
+						profiler.call(current.ip, callStack.size());
+				}
+			};
+		case PUSH__________:
+		case PUSH2_________:
+		case PUSHCONST_____:
+			return new Handler(insn) {
+				protected void handle() {
+					profiler.count(ip);
+					handler.handle();
+					profiler.push(dataStack.size());
+				}
+			};
+		default:
+			return new Handler(insn) {
+				protected void handle() {
+					profiler.count(ip);
+					handler.handle();
+				}
+			};
+		}
+	}
+
+	private void start() {
+		current = new Closure(null, 0);
+		callStack = new CallStack(stackLimit);
+		dataStack = new Stack<Node>(stackLimit);
+		isExited = false;
+	}
+
+	private Node finish() {
+		Node result = exitValue;
+		current = null;
+		callStack = null;
+		dataStack = null;
+		exitValue = null;
+		return result;
+	}
+
+	protected Handler link(final Instruction insn) {
+		switch (insn.insn) {
+		case ASSIGNCALLCLOS:
+			if (insn.isTailCall)
+				return new Handler(insn) {
+					protected void handle() {
+						Frame frame = current.frame;
+						frame.registers[op3] = new Closure(frame, op2);
+						current.ip = op2;
+					}
+				};
+			else
+				return new Handler(insn) {
+					protected void handle() {
+						Frame frame = current.frame;
+						frame.registers[op3] = new Closure(frame, op2);
+						callStack.push(current);
+						current.ip = op2;
+					}
+				};
+		case ASSIGNCLOSURE_:
+			return new Handler(insn) {
+				protected void handle() {
+					Frame frame = current.frame;
+					frame.registers[op1] = new Closure(frame, op2);
+				}
+			};
+		case ASSIGNTHUNK___:
+			return new Handler(insn) {
+				protected void handle() {
+					Frame frame = current.frame;
+					frame.registers[op1] = new Thunk(frame, op2);
+				}
+			};
+		case ASSIGNFRAMEREG:
+			return new Handler(insn) {
+				protected void handle() {
+					Frame frame = current.frame;
+					Node regs[] = frame.registers;
+					int i = op2;
+					while (i++ < 0)
+						frame = frame.previous;
+					regs[op1] = frame.registers[op3];
+				}
+			};
+		case ASSIGNCONST___:
+			final Node constant = constantPool[insn.op2];
+			return new Handler(insn) {
+				protected void handle() {
+					current.frame.registers[op1] = constant;
+				}
+			};
+		case ASSIGNINT_____:
+			final Int integer = i(insn.op2);
+			if (insn.isUnboxed1)
+				return new Handler(insn) {
+					protected void handle() {
+						current.frame.ints[op1] = op2;
+					}
+				};
+			else
+				return new Handler(insn) {
+					protected void handle() {
+						current.frame.registers[op1] = integer;
+					}
+				};
+		case CALL__________:
+			return new Handler(insn) {
+				protected void handle() {
+					Frame frame = current.frame;
+					callStack.push(current);
+					current.ip = g(frame.registers[op1]);
+				}
+			};
+		case CALLCONST_____:
+			return new Handler(insn) {
+				protected void handle() {
+					callStack.push(current);
+					current.ip = op1;
+				}
+			};
+		case CALLCLOSURE___:
+			if (insn.isTailCall)
+				return new Handler(insn) {
+					protected void handle() {
+						Node regs[] = current.frame.registers;
+						call((Closure) regs[op2]);
+					}
+				};
+			else
+				return new Handler(insn) {
+					protected void handle() {
+						Node regs[] = current.frame.registers;
+						callStack.push(current);
+						call((Closure) regs[op2]);
+					}
+				};
+		case CALLCLOSUREIFR:
+			final boolean isTailCall = insn.isTailCall;
+			return new Handler(insn) {
+				protected void handle() {
+					Node regs[] = current.frame.registers;
+					Node node = regs[op2];
+					Node result = node instanceof Thunk ? ((Thunk) node).result
+							: node;
+					if (result == null) {
+						if (!isTailCall)
+							callStack.push(current);
+						call((Closure) node);
+					} else
+						regs[op1] = result;
+				}
+			};
+		case ENTER_________:
+			return new Handler(insn) {
+				protected void handle() {
+					current.frame = new Frame(current.frame, op1, op2);
+				}
+			};
+		case EVALADD_______:
+			return new Handler(insn) {
+				protected void handle() {
+					Frame frame = current.frame;
+					i(frame, insn, g2(frame, insn) + g3(frame, insn));
+				}
+			};
+		case EVALDIV_______:
+			return new Handler(insn) {
+				protected void handle() {
+					Frame frame = current.frame;
+					i(frame, insn, g2(frame, insn) / g3(frame, insn));
+				}
+			};
+		case EVALEQ________:
+			return new Handler(insn) {
+				protected void handle() {
+					Frame frame = current.frame;
+					frame.registers[op1] = a(g2(frame, insn) == g3(frame, insn));
+				}
+			};
+		case EVALGE________:
+			return new Handler(insn) {
+				protected void handle() {
+					Frame frame = current.frame;
+					frame.registers[op1] = a(g2(frame, insn) >= g3(frame, insn));
+				}
+			};
+		case EVALGT________:
+			return new Handler(insn) {
+				protected void handle() {
+					Frame frame = current.frame;
+					frame.registers[op1] = a(g2(frame, insn) > g3(frame, insn));
+				}
+			};
+		case EVALLE________:
+			return new Handler(insn) {
+				protected void handle() {
+					Frame frame = current.frame;
+					frame.registers[op1] = a(g2(frame, insn) <= g3(frame, insn));
+				}
+			};
+		case EVALLT________:
+			return new Handler(insn) {
+				protected void handle() {
+					Frame frame = current.frame;
+					frame.registers[op1] = a(g2(frame, insn) < g3(frame, insn));
+				}
+			};
+		case EVALNE________:
+			return new Handler(insn) {
+				protected void handle() {
+					Frame frame = current.frame;
+					frame.registers[op1] = a(g2(frame, insn) != g3(frame, insn));
+				}
+			};
+		case EVALMOD_______:
+			return new Handler(insn) {
+				protected void handle() {
+					Frame frame = current.frame;
+					i(frame, insn, g2(frame, insn) % g3(frame, insn));
+				}
+			};
+		case EVALMUL_______:
+			return new Handler(insn) {
+				protected void handle() {
+					Frame frame = current.frame;
+					i(frame, insn, g2(frame, insn) * g3(frame, insn));
+				}
+			};
+		case EVALSUB_______:
+			return new Handler(insn) {
+				protected void handle() {
+					Frame frame = current.frame;
+					i(frame, insn, g2(frame, insn) - g3(frame, insn));
+				}
+			};
+		case EXIT__________:
+			return new Handler(insn) {
+				protected void handle() {
+					exitValue = current.frame.registers[op1];
+					isExited = true;
+				}
+			};
+		case EXITVALUE_____:
+			final Node value = constantPool[insn.op1];
+			return new Handler(insn) {
+				protected void handle() {
+					exitValue = value;
+					isExited = true;
+				}
+			};
+		case FORMTREE0_____:
+			return new Handler(insn) {
+				protected void handle() {
+					Node regs[] = current.frame.registers;
+					Node left = regs[op1];
+					Node right = regs[op2];
+					Instruction insn = instructions[current.ip++];
+					String operator = ((Atom) constantPool[insn.op1])
+							.getName();
+					regs[insn.op2] = new Tree(TermOp.find(operator), left,
+							right);
+				}
+			};
+		case FORMTREE______:
+			final TermOp termOp = termOps[insn.op4];
+			return new Handler(insn) {
+				protected void handle() {
+					Node regs[] = current.frame.registers;
+					regs[op3] = new Tree(termOp, regs[op1], regs[op2]);
+				}
+			};
+		case IFFALSE_______:
+			return new Handler(insn) {
+				protected void handle() {
+					if (current.frame.registers[op2] != trueAtom)
+						current.ip = op1;
+				}
+			};
+		case IFFALSEEQ_____:
+			return new Handler(insn) {
+				protected void handle() {
+					Frame frame = current.frame;
+					if (!c(frame.registers, insn,
+							g2(frame, insn) == g3(frame, insn)))
+						current.ip = op1;
+				}
+			};
+		case IFFALSEGE_____:
+			return new Handler(insn) {
+				protected void handle() {
+					Frame frame = current.frame;
+					if (!c(frame.registers, insn,
+							g2(frame, insn) >= g3(frame, insn)))
+						current.ip = op1;
+				}
+			};
+		case IFFALSEGT_____:
+			return new Handler(insn) {
+				protected void handle() {
+					Frame frame = current.frame;
+					if (!c(frame.registers, insn,
+							g2(frame, insn) > g3(frame, insn)))
+						current.ip = op1;
+				}
+			};
+		case IFFALSELE_____:
+			return new Handler(insn) {
+				protected void handle() {
+					Frame frame = current.frame;
+					if (!c(frame.registers, insn,
+							g2(frame, insn) <= g3(frame, insn)))
+						current.ip = op1;
+				}
+			};
+		case IFFALSELT_____:
+			return new Handler(insn) {
+				protected void handle() {
+					Frame frame = current.frame;
+					if (!c(frame.registers, insn,
+							g2(frame, insn) < g3(frame, insn)))
+						current.ip = op1;
+				}
+			};
+		case IFFALSENE_____:
+			return new Handler(insn) {
+				protected void handle() {
+					Frame frame = current.frame;
+					if (!c(frame.registers, insn,
+							g2(frame, insn) != g3(frame, insn)))
+						current.ip = op1;
+				}
+			};
+		case IFNOTEQUALS___:
+			return new Handler(insn) {
+				protected void handle() {
+					Node regs[] = current.frame.registers;
+					if (regs[op2] != regs[op3])
+						current.ip = op1;
+				}
+			};
+		case JUMP__________:
+			return new Handler(insn) {
+				protected void handle() {
+					current.ip = op1;
+				}
+			};
+		case LABEL_________:
+		case REMARK________:
+			return new Handler(insn) {
+				protected void handle() {
+				}
+			};
+		case LOG___________:
+			final String message = constantPool[insn.op1].toString();
+			return new Handler(insn) {
+				protected void handle() {
+					LogUtil.info("EXEC", message);
+				}
+			};
+		case NEWNODE_______:
+			return new Handler(insn) {
+				protected void handle() {
+					current.frame.registers[op1] = new Reference();
+				}
+			};
+		case PUSH__________:
+			return new Handler(insn) {
+				protected void handle() {
+					dataStack.push(current.frame.registers[op1]);
+				}
+			};
+		case PUSH2_________:
+			return new Handler(insn) {
+				protected void handle() {
+					Node regs[] = current.frame.registers;
+					dataStack.push(regs[op1]);
+					dataStack.push(regs[op2]);
+				}
+			};
+		case PUSHCONST_____:
+			final Int pushed = i(insn.op1);
+			return new Handler(insn) {
+				protected void handle() {
+					dataStack.push(pushed);
+				}
+			};
+		case POP___________:
+			return new Handler(insn) {
+				protected void handle() {
+					current.frame.registers[op1] = dataStack.pop();
+				}
+			};
+		case RETURN________:
+			return new Handler(insn) {
+				protected void handle() {
+					callStack.pop(current);
+				}
+			};
+		case RETURNVALUE___:
+			return new Handler(insn) {
+				protected void handle() {
+					Node returnValue = current.frame.registers[op1];
+					callStack.pop(current);
+					returnValue(current, returnValue);
+				}
+			};
+		case TOP___________:
+			return new Handler(insn) {
+				protected void handle() {
+					current.frame.registers[op1] = dataStack.get(dataStack.size() + op2);
+				}
+			};
+		default:
+			return new Handler(insn) {
+				protected void handle() {
+					throw new RuntimeException("Unknown instruction " + insn);
+				}
+			};
+		}
+	}
+
+	protected void execute(Closure current, Instruction insn,
+			CallStack callStack, Stack<Node> dataStack) {
 		throw new RuntimeException("Unknown instruction " + insn);
 	}
 
@@ -358,12 +1382,47 @@ public class InstructionExecutor {
 		return Int.create(n);
 	}
 
+	/**
+	 * Stores an integer result into the first operand register, boxing it
+	 * only if the register is not in the integer bank.
+	 */
+	protected static void i(Frame frame, Instruction insn, int n) {
+		if (insn.isUnboxed1)
+			frame.ints[insn.op1] = n;
+		else
+			frame.registers[insn.op1] = i(n);
+	}
+
 	protected static Atom a(boolean b) {
 		return b ? trueAtom : falseAtom;
 	}
 
+	/**
+	 * Stores the condition of a fused comparison into the fourth operand
+	 * register, and returns it.
+	 */
+	protected static boolean c(Node regs[], Instruction insn, boolean b) {
+		regs[insn.op4] = a(b);
+		return b;
+	}
+
 	protected static int g(Object node) {
 		return ((Int) node).getNumber();
 	}
 
+	protected static int g1(Frame frame, Instruction insn) {
+		return insn.isUnboxed1 ? frame.ints[insn.op1]
+				: g(frame.registers[insn.op1]);
+	}
+
+	protected static int g2(Frame frame, Instruction insn) {
+		return insn.isUnboxed2 ? frame.ints[insn.op2]
+				: g(frame.registers[insn.op2]);
+	}
+
+	protected static int g3(Frame frame, Instruction insn) {
+		return insn.isUnboxed3 ? frame.ints[insn.op3]
+				: g(frame.registers[insn.op3]);
+	}
+
 }
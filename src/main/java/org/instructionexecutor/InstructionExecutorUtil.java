@@ -1,13 +1,33 @@
 package org.instructionexecutor;
 
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
 import org.instructionexecutor.InstructionExecutor.Insn;
 import org.suite.node.Node;
+import org.suite.node.Reference;
+import org.suite.node.Tree;
 
 public class InstructionExecutorUtil {
 
+	private static final int segmentShift = 12;
+	private static final int segmentSize = 1 << segmentShift;
+	private static final int segmentMask = segmentSize - 1;
+
 	protected static class Instruction {
 		protected Insn insn;
 		protected int op1, op2, op3;
+		protected int op4; // Extra operand of superinstructions
+
+		// Whether the operand register is kept in the integer bank of frame
+		protected boolean isUnboxed1, isUnboxed2, isUnboxed3;
+
+		// Whether the call returns its result immediately
+		protected boolean isTailCall;
+
+		// Index in the compiled code the instruction was extracted from
+		protected int sourceIp;
 
 		protected Instruction(Insn insn, int op1, int op2, int op3) {
 			this.insn = insn;
@@ -32,32 +52,346 @@ public class InstructionExecutorUtil {
 			this.ip = ip;
 		}
 
-		protected Closure clone() {
-			return new Closure(frame, ip);
-		}
-
 		public String toString() {
 			return "frameSize = " + frame.registers.length + ", IP = " + ip;
 		}
 	}
 
+	// A closure of a lazily evaluated expression. The result is kept after
+	// the first evaluation, and the frame released.
+	protected static class Thunk extends Closure {
+		protected Node result;
+
+		protected Thunk(Frame frame, int ip) {
+			super(frame, ip);
+		}
+	}
+
 	protected static class Frame {
 		protected Frame previous;
 		protected Node registers[];
+		protected int ints[]; // Unboxed integer registers
 
-		protected Frame(Frame previous, int frameSize) {
+		protected Frame(Frame previous, int frameSize, int intFrameSize) {
 			this.previous = previous;
 			registers = new Node[frameSize];
+			ints = intFrameSize > 0 ? new int[intFrameSize] : null;
+		}
+	}
+
+	/**
+	 * A stack kept in fixed-size segments, which are allocated on demand. The
+	 * stack grows without copying its elements, up to a hard limit (rounded up
+	 * to whole segments).
+	 */
+	protected static class Stack<T> {
+		private Object segments[][] = new Object[1][];
+		private Object segment[];
+		private int sp, limit;
+
+		protected Stack(int limit) {
+			this.limit = limit;
+		}
+
+		protected void push(T t) {
+			int offset = sp & segmentMask;
+			if (offset == 0)
+				nextSegment();
+			segment[offset] = t;
+			sp++;
+		}
+
+		@SuppressWarnings("unchecked")
+		protected T pop() {
+			int offset = --sp & segmentMask;
+			if (offset == segmentMask)
+				segment = segments[sp >> segmentShift];
+			return (T) segment[offset];
+		}
+
+		@SuppressWarnings("unchecked")
+		protected T get(int i) {
+			return (T) segments[i >> segmentShift][i & segmentMask];
+		}
+
+		// Pops elements above the specified size, clearing them for GC
+		protected void truncate(int size) {
+			while (sp > size) {
+				pop();
+				segment[sp & segmentMask] = null;
+			}
+		}
+
+		// Discards or re-exposes elements without clearing them
+		protected void setSize(int size) {
+			sp = size;
+			if ((sp & segmentMask) != 0)
+				segment = segments[sp >> segmentShift];
+		}
+
+		protected int size() {
+			return sp;
+		}
+
+		private void nextSegment() {
+			int index = sp >> segmentShift;
+
+			if (index == segments.length) {
+				if (sp >= limit)
+					throw new StackOverflowException();
+				segments = Arrays.copyOf(segments, index * 2);
+			}
+
+			if (segments[index] == null)
+				if (sp < limit)
+					segments[index] = new Object[segmentSize];
+				else
+					throw new StackOverflowException();
+
+			segment = segments[index];
+		}
+	}
+
+	protected static class IntStack {
+		private int segments[][] = new int[1][];
+		private int segment[];
+		private int sp, limit;
+
+		protected IntStack(int limit) {
+			this.limit = limit;
+		}
+
+		protected void push(int i) {
+			int offset = sp & segmentMask;
+			if (offset == 0)
+				nextSegment();
+			segment[offset] = i;
+			sp++;
+		}
+
+		protected int pop() {
+			int offset = --sp & segmentMask;
+			if (offset == segmentMask)
+				segment = segments[sp >> segmentShift];
+			return segment[offset];
+		}
+
+		protected int get(int i) {
+			return segments[i >> segmentShift][i & segmentMask];
+		}
+
+		protected void setSize(int size) {
+			sp = size;
+			if ((sp & segmentMask) != 0)
+				segment = segments[sp >> segmentShift];
+		}
+
+		protected int size() {
+			return sp;
+		}
+
+		private void nextSegment() {
+			int index = sp >> segmentShift;
+
+			if (index == segments.length) {
+				if (sp >= limit)
+					throw new StackOverflowException();
+				segments = Arrays.copyOf(segments, index * 2);
+			}
+
+			if (segments[index] == null)
+				if (sp < limit)
+					segments[index] = new int[segmentSize];
+				else
+					throw new StackOverflowException();
+
+			segment = segments[index];
 		}
 	}
 
-	protected static class CutPoint {
-		protected int journalPointer;
-		protected int callStackPointer;
+	/**
+	 * Keeps return addresses as instruction pointers and frames in two
+	 * parallel stacks, so that calls do not allocate closures. The executing
+	 * closure is a mutable context that is saved and restored in place.
+	 */
+	protected static class CallStack {
+		private IntStack ips;
+		private Stack<Frame> frames;
+
+		protected CallStack(int limit) {
+			ips = new IntStack(limit);
+			frames = new Stack<Frame>(limit);
+		}
+
+		protected void push(Closure current) {
+			ips.push(current.ip);
+			frames.push(current.frame);
+		}
+
+		protected void pop(Closure current) {
+			current.ip = ips.pop();
+			current.frame = frames.pop();
+		}
+
+		protected int getIp(int i) {
+			return ips.get(i);
+		}
+
+		protected Frame getFrame(int i) {
+			return frames.get(i);
+		}
+
+		// Discards calls above the specified depth
+		protected void truncate(int size) {
+			ips.setSize(size);
+			frames.truncate(size);
+		}
+
+		protected int size() {
+			return ips.size();
+		}
+	}
+
+	/**
+	 * Thrown when a stack of the executor exceeds its limit. The executor
+	 * re-throws it with the instruction pointer that overflowed.
+	 */
+	public static class StackOverflowException extends RuntimeException {
+		private static final long serialVersionUID = 1l;
+		private int ip;
+
+		protected StackOverflowException() {
+			this(-1);
+		}
+
+		protected StackOverflowException(int ip) {
+			super("Stack overflow at IP = " + ip);
+			this.ip = ip;
+		}
+
+		public int getIp() {
+			return ip;
+		}
+	}
+
+	/**
+	 * Copies frames and nodes reachable from executor states. Closures and
+	 * references are copied once each, keeping the sharing among them; bound
+	 * references are copied with their direct bindings, so that the copies
+	 * could be unbound by another journal. Thunks are copied with their
+	 * results if evaluated. Trees are copied only if they contain any of
+	 * those.
+	 */
+	protected static class Copier {
+		private Map<Frame, Frame> frames = new IdentityHashMap<Frame, Frame>();
+		private Map<Node, Node> nodes = new IdentityHashMap<Node, Node>();
+
+		protected Frame copy(Frame frame) {
+			Frame frame1 = frame != null ? frames.get(frame) : null;
+
+			if (frame != null && frame1 == null) {
+				Node registers[] = frame.registers;
+				frame1 = new Frame(null, registers.length, 0);
+				frames.put(frame, frame1);
+
+				frame1.previous = copy(frame.previous);
+				frame1.ints = frame.ints != null ? frame.ints.clone() : null;
+				for (int i = 0; i < registers.length; i++)
+					frame1.registers[i] = copy(registers[i]);
+			}
+
+			return frame1;
+		}
+
+		protected Node copy(Node node) {
+			Node node1 = node != null ? nodes.get(node) : null;
+
+			if (node1 == null)
+				if (node instanceof Reference) {
+					Reference ref = (Reference) node;
+					Reference ref1 = new Reference();
+					nodes.put(ref, node1 = ref1);
+					if (ref.getNode() != ref)
+						ref1.bound(copy(ref.getNode()));
+				} else if (node instanceof Thunk) {
+					Thunk thunk = (Thunk) node;
+					Thunk thunk1 = new Thunk(null, thunk.ip);
+					nodes.put(thunk, node1 = thunk1);
+					thunk1.frame = copy(thunk.frame);
+					thunk1.result = copy(thunk.result);
+				} else if (node instanceof Closure) {
+					Closure closure = (Closure) node;
+					Closure closure1 = new Closure(null, closure.ip);
+					nodes.put(closure, node1 = closure1);
+					closure1.frame = copy(closure.frame);
+				} else if (node instanceof Tree) {
+					Tree tree = (Tree) node;
+					Node left = tree.getLeft(), right = tree.getRight();
+					Node left1 = copy(left), right1 = copy(right);
+					if (left != left1 || right != right1)
+						node1 = new Tree(tree.getOperator(), left1, right1);
+					else
+						node1 = node;
+					nodes.put(node, node1);
+				} else
+					node1 = node;
+
+			return node1;
+		}
+	}
+
+	/**
+	 * Keeps cut points as journal, bind point, call stack and data stack
+	 * pointers in parallel integer stacks, so that entering a call does not
+	 * allocate. A cut point is referred by its index.
+	 */
+	protected static class CutPointStack {
+		private IntStack journalPointers;
+		private IntStack bindPointers;
+		private IntStack callStackPointers;
+		private IntStack dataStackPointers;
+
+		protected CutPointStack(int limit) {
+			journalPointers = new IntStack(limit);
+			bindPointers = new IntStack(limit);
+			callStackPointers = new IntStack(limit);
+			dataStackPointers = new IntStack(limit);
+		}
+
+		protected void push(int journalPointer, int bindPointer,
+				int callStackPointer, int dataStackPointer) {
+			journalPointers.push(journalPointer);
+			bindPointers.push(bindPointer);
+			callStackPointers.push(callStackPointer);
+			dataStackPointers.push(dataStackPointer);
+		}
+
+		protected int getJournalPointer(int i) {
+			return journalPointers.get(i);
+		}
+
+		protected int getBindPointer(int i) {
+			return bindPointers.get(i);
+		}
+
+		protected int getCallStackPointer(int i) {
+			return callStackPointers.get(i);
+		}
+
+		protected int getDataStackPointer(int i) {
+			return dataStackPointers.get(i);
+		}
+
+		// Discards cut points from the specified index onwards
+		protected void truncate(int size) {
+			journalPointers.setSize(size);
+			bindPointers.setSize(size);
+			callStackPointers.setSize(size);
+			dataStackPointers.setSize(size);
+		}
 
-		protected CutPoint(int journalPointer, int callStackPointer) {
-			this.journalPointer = journalPointer;
-			this.callStackPointer = callStackPointer;
+		protected int size() {
+			return journalPointers.size();
 		}
 	}
 
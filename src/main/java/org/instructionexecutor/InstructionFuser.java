@@ -0,0 +1,186 @@
+package org.instructionexecutor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.instructionexecutor.InstructionExecutor.Insn;
+import org.instructionexecutor.InstructionExecutorUtil.Instruction;
+import org.suite.doer.TermParser.TermOp;
+import org.suite.node.Atom;
+import org.suite.node.Node;
+
+/**
+ * Peephole pass over extracted instructions. Common instruction sequences are
+ * replaced by superinstructions, and no-op instructions are dropped, saving
+ * dispatches in all execution engines.
+ *
+ * Instructions are renumbered afterwards, thus all jump targets are rewritten.
+ * The second instruction of a fused sequence must not be a jump target. Code
+ * that calls computed instruction pointers (CALL) is left untouched.
+ */
+public class InstructionFuser {
+
+	private Instruction instructions[];
+	private Node constantPool[];
+
+	public InstructionFuser(Instruction instructions[], Node constantPool[]) {
+		this.instructions = instructions;
+		this.constantPool = constantPool;
+	}
+
+	public Instruction[] fuse() {
+		int length = instructions.length;
+		boolean isTarget[] = new boolean[length + 1];
+
+		for (Instruction insn : instructions)
+			if (insn.insn == Insn.CALL__________)
+				return instructions;
+			else if (getTargetOperand(insn.insn) != 0)
+				isTarget[getTarget(insn)] = true;
+
+		List<Instruction> list = new ArrayList<Instruction>();
+		int ips[] = new int[length + 1];
+		int ip = 0;
+
+		while (ip < length) {
+			Instruction insn = instructions[ip];
+			Instruction next = ip + 1 < length ? instructions[ip + 1] : null;
+			Instruction fused = next != null && !isTarget[ip + 1] ? fuse(insn,
+					next) : null;
+
+			ips[ip] = list.size();
+
+			if (fused != null) {
+				ips[ip + 1] = list.size();
+				list.add(fused);
+				ip += 2;
+			} else {
+				if (insn.insn != Insn.LABEL_________
+						&& insn.insn != Insn.REMARK________)
+					list.add(insn);
+				ip++;
+			}
+		}
+
+		ips[length] = list.size();
+
+		for (Instruction insn : list)
+			if (getTargetOperand(insn.insn) != 0)
+				setTarget(insn, ips[getTarget(insn)]);
+
+		return list.toArray(new Instruction[list.size()]);
+	}
+
+	private Instruction fuse(Instruction insn0, Instruction insn1) {
+		Insn fusedInsn = null;
+		Instruction fused = null;
+
+		switch (insn0.insn) {
+		case ASSIGNCLOSURE_:
+			if (insn1.insn == Insn.CALLCLOSURE___ && insn1.op2 == insn0.op1)
+				fused = new Instruction(Insn.ASSIGNCALLCLOS //
+						, insn1.op1, insn0.op2, insn0.op1);
+			break;
+		case EVALEQ________:
+			fusedInsn = Insn.IFFALSEEQ_____;
+			break;
+		case EVALGE________:
+			fusedInsn = Insn.IFFALSEGE_____;
+			break;
+		case EVALGT________:
+			fusedInsn = Insn.IFFALSEGT_____;
+			break;
+		case EVALLE________:
+			fusedInsn = Insn.IFFALSELE_____;
+			break;
+		case EVALLT________:
+			fusedInsn = Insn.IFFALSELT_____;
+			break;
+		case EVALNE________:
+			fusedInsn = Insn.IFFALSENE_____;
+			break;
+		case FORMTREE0_____:
+			if (insn1.insn == Insn.FORMTREE1_____) {
+				String name = ((Atom) constantPool[insn1.op1]).getName();
+				fused = new Instruction(Insn.FORMTREE______ //
+						, insn0.op1, insn0.op2, insn1.op2);
+				fused.op4 = TermOp.find(name).ordinal();
+			}
+			break;
+		case PUSH__________:
+			if (insn1.insn == Insn.PUSH__________)
+				fused = new Instruction(Insn.PUSH2_________ //
+						, insn0.op1, insn1.op1, 0);
+			break;
+		default:
+			break;
+		}
+
+		if (fusedInsn != null && insn1.insn == Insn.IFFALSE_______
+				&& insn1.op2 == insn0.op1) {
+			fused = new Instruction(fusedInsn, insn1.op1, insn0.op2, insn0.op3);
+			fused.op4 = insn0.op1; // Still assigns the condition
+			fused.isUnboxed2 = insn0.isUnboxed2;
+			fused.isUnboxed3 = insn0.isUnboxed3;
+		}
+
+		if (fused != null)
+			fused.sourceIp = insn0.sourceIp;
+
+		return fused;
+	}
+
+	private static int getTarget(Instruction insn) {
+		switch (getTargetOperand(insn.insn)) {
+		case 1:
+			return insn.op1;
+		case 2:
+			return insn.op2;
+		default:
+			return insn.op3;
+		}
+	}
+
+	private static void setTarget(Instruction insn, int target) {
+		switch (getTargetOperand(insn.insn)) {
+		case 1:
+			insn.op1 = target;
+			break;
+		case 2:
+			insn.op2 = target;
+			break;
+		default:
+			insn.op3 = target;
+		}
+	}
+
+	// Which operand holds an instruction pointer, or 0 if none does
+	private static int getTargetOperand(Insn insn) {
+		switch (insn) {
+		case CALLCONST_____:
+		case IFFALSE_______:
+		case IFFALSEEQ_____:
+		case IFFALSEGE_____:
+		case IFFALSEGT_____:
+		case IFFALSELE_____:
+		case IFFALSELT_____:
+		case IFFALSENE_____:
+		case IFNOTEQUALS___:
+		case JUMP__________:
+			return 1;
+		case ASSIGNCALLCLOS:
+		case ASSIGNCLOSURE_:
+		case ASSIGNTHUNK___:
+		case CUTFAIL_______:
+		case FORK__________:
+		case FORKALT_______:
+		case PROVESYS______:
+			return 2;
+		case BIND__________:
+			return 3;
+		default:
+			return 0;
+		}
+	}
+
+}
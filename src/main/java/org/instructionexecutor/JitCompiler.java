@@ -0,0 +1,473 @@
+package org.instructionexecutor;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.instructionexecutor.InstructionExecutor.Insn;
+import org.instructionexecutor.InstructionExecutorUtil.Instruction;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.parser.Operator;
+import org.suite.doer.TermParser.TermOp;
+import org.suite.node.Atom;
+import org.suite.node.Int;
+import org.suite.node.Node;
+import org.suite.node.Tree;
+
+/**
+ * Translates extracted instructions into a JVM class, so that HotSpot can
+ * compile the arithmetic and jumps down to machine code.
+ *
+ * Instructions are divided into fixed-size segments, each becoming a static
+ * method entered through a table switch on the instruction pointer. Only the
+ * register-local instructions are generated; the generated code returns the
+ * instruction pointer of any other instruction, which is then run by the
+ * interpreter before re-entering the generated code.
+ */
+public class JitCompiler implements Opcodes {
+
+	/**
+	 * Executes generated code from an instruction pointer, returning the
+	 * instruction pointer of the first instruction that needs interpretation.
+	 */
+	public interface Code {
+		public int run(Node regs[], int ints[], int ip);
+	}
+
+	private static final int segmentShift = 6;
+	private static final int segmentSize = 1 << segmentShift;
+
+	private static final String codeName = name(Code.class);
+	private static final String nodeName = name(Node.class);
+	private static final String intName = name(Int.class);
+	private static final String treeName = name(Tree.class);
+	private static final String operatorName = name(Operator.class);
+
+	private static final String segmentDesc = "([Ljava/lang/Object;[L"
+			+ nodeName + ";[II)I";
+
+	private static final AtomicInteger counter = new AtomicInteger();
+
+	private Instruction instructions[];
+	private List<Object> constants = new ArrayList<Object>();
+	private Map<Object, Integer> constantIndices = new IdentityHashMap<Object, Integer>();
+
+	private Node constantPool[];
+	private Atom trueAtom, falseAtom;
+
+	public JitCompiler(Instruction instructions[], Node constantPool[],
+			Atom trueAtom, Atom falseAtom) {
+		this.instructions = instructions;
+		this.constantPool = constantPool;
+		this.trueAtom = trueAtom;
+		this.falseAtom = falseAtom;
+	}
+
+	public Code compile() {
+		String className = codeName + "$" + counter.getAndIncrement();
+		int nSegments = (instructions.length + segmentSize - 1) >> segmentShift;
+
+		ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+		cw.visit(V1_6, ACC_PUBLIC | ACC_FINAL | ACC_SUPER, className, null,
+				"java/lang/Object", new String[] { codeName });
+		cw.visitField(ACC_PRIVATE | ACC_FINAL, "constants",
+				"[Ljava/lang/Object;", null, null).visitEnd();
+
+		for (int segment = 0; segment < nSegments; segment++)
+			generateSegment(cw, segment);
+
+		generateConstructor(cw, className);
+		generateRun(cw, className, nSegments);
+		cw.visitEnd();
+
+		Class<?> clazz = new CodeClassLoader().define(
+				className.replace('/', '.'), cw.toByteArray());
+
+		try {
+			return (Code) clazz.getConstructor(Object[].class).newInstance(
+					(Object) constants.toArray());
+		} catch (Exception ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
+	private void generateConstructor(ClassWriter cw, String className) {
+		MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "<init>",
+				"([Ljava/lang/Object;)V", null, null);
+		mv.visitCode();
+		mv.visitVarInsn(ALOAD, 0);
+		mv.visitMethodInsn(INVOKESPECIAL, "java/lang/Object", "<init>", "()V",
+				false);
+		mv.visitVarInsn(ALOAD, 0);
+		mv.visitVarInsn(ALOAD, 1);
+		mv.visitFieldInsn(PUTFIELD, className, "constants",
+				"[Ljava/lang/Object;");
+		mv.visitInsn(RETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+	}
+
+	// Loops through segments while each one asks to continue at another
+	// instruction pointer, encoded as a negative return value
+	private void generateRun(ClassWriter cw, String className, int nSegments) {
+		MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "run", "([L" + nodeName
+				+ ";[II)I", null, null);
+		Label loop = new Label(), next = new Label(), fail = new Label();
+		Label cases[] = new Label[nSegments];
+
+		for (int segment = 0; segment < nSegments; segment++)
+			cases[segment] = new Label();
+
+		mv.visitCode();
+		mv.visitLabel(loop);
+		mv.visitVarInsn(ILOAD, 3);
+		pushInt(mv, segmentShift);
+		mv.visitInsn(ISHR);
+		mv.visitTableSwitchInsn(0, nSegments - 1, fail, cases);
+
+		for (int segment = 0; segment < nSegments; segment++) {
+			mv.visitLabel(cases[segment]);
+			mv.visitVarInsn(ALOAD, 0);
+			mv.visitFieldInsn(GETFIELD, className, "constants",
+					"[Ljava/lang/Object;");
+			mv.visitVarInsn(ALOAD, 1);
+			mv.visitVarInsn(ALOAD, 2);
+			mv.visitVarInsn(ILOAD, 3);
+			mv.visitMethodInsn(INVOKESTATIC, className, "s" + segment,
+					segmentDesc, false);
+			mv.visitJumpInsn(GOTO, next);
+		}
+
+		mv.visitLabel(fail);
+		mv.visitVarInsn(ILOAD, 3); // Lets the interpreter complain
+		mv.visitInsn(IRETURN);
+
+		mv.visitLabel(next);
+		mv.visitInsn(DUP);
+		mv.visitVarInsn(ISTORE, 3);
+		Label interpret = new Label();
+		mv.visitJumpInsn(IFGE, interpret);
+		mv.visitVarInsn(ILOAD, 3);
+		mv.visitInsn(ICONST_M1);
+		mv.visitInsn(IXOR);
+		mv.visitVarInsn(ISTORE, 3);
+		mv.visitJumpInsn(GOTO, loop);
+		mv.visitLabel(interpret);
+		mv.visitVarInsn(ILOAD, 3);
+		mv.visitInsn(IRETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+	}
+
+	private void generateSegment(ClassWriter cw, int segment) {
+		int start = segment << segmentShift;
+		int end = Math.min(start + segmentSize, instructions.length);
+
+		MethodVisitor mv = cw.visitMethod(ACC_PRIVATE | ACC_STATIC, "s"
+				+ segment, segmentDesc, null, null);
+		Label labels[] = new Label[end - start];
+		Label fail = new Label();
+
+		for (int ip = start; ip < end; ip++)
+			labels[ip - start] = new Label();
+
+		mv.visitCode();
+		mv.visitVarInsn(ILOAD, 3);
+		mv.visitTableSwitchInsn(start, end - 1, fail, labels);
+
+		for (int ip = start; ip < end; ip++) {
+			mv.visitLabel(labels[ip - start]);
+			generate(mv, ip, start, end, labels);
+		}
+
+		continueAt(mv, end);
+
+		mv.visitLabel(fail);
+		mv.visitVarInsn(ILOAD, 3);
+		mv.visitInsn(IRETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+	}
+
+	private void generate(MethodVisitor mv, int ip, int start, int end,
+			Label labels[]) {
+		Instruction insn = instructions[ip];
+
+		switch (insn.insn) {
+		case ASSIGNCONST___:
+			loadRegs(mv, insn.op1);
+			loadConstant(mv, constantPool[insn.op2], nodeName);
+			mv.visitInsn(AASTORE);
+			break;
+		case ASSIGNFRAMEREG:
+			if (insn.op2 == 0) {
+				loadRegs(mv, insn.op1);
+				loadReg(mv, insn.op3);
+				mv.visitInsn(AASTORE);
+			} else
+				interpret(mv, ip);
+			break;
+		case ASSIGNINT_____:
+			if (insn.isUnboxed1) {
+				loadInts(mv, insn.op1);
+				pushInt(mv, insn.op2);
+				mv.visitInsn(IASTORE);
+			} else {
+				loadRegs(mv, insn.op1);
+				pushInt(mv, insn.op2);
+				createInt(mv);
+				mv.visitInsn(AASTORE);
+			}
+			break;
+		case EVALADD_______:
+			arithmetic(mv, insn, IADD);
+			break;
+		case EVALDIV_______:
+			arithmetic(mv, insn, IDIV);
+			break;
+		case EVALMOD_______:
+			arithmetic(mv, insn, IREM);
+			break;
+		case EVALMUL_______:
+			arithmetic(mv, insn, IMUL);
+			break;
+		case EVALSUB_______:
+			arithmetic(mv, insn, ISUB);
+			break;
+		case EVALEQ________:
+			compare(mv, insn, IF_ICMPEQ);
+			break;
+		case EVALGE________:
+			compare(mv, insn, IF_ICMPGE);
+			break;
+		case EVALGT________:
+			compare(mv, insn, IF_ICMPGT);
+			break;
+		case EVALLE________:
+			compare(mv, insn, IF_ICMPLE);
+			break;
+		case EVALLT________:
+			compare(mv, insn, IF_ICMPLT);
+			break;
+		case EVALNE________:
+			compare(mv, insn, IF_ICMPNE);
+			break;
+		case FORMTREE0_____:
+			Instruction insn1 = ip + 1 < end ? instructions[ip + 1] : null;
+
+			if (insn1 != null && insn1.insn == Insn.FORMTREE1_____) {
+				String name = ((Atom) constantPool[insn1.op1]).getName();
+				formTree(mv, TermOp.find(name), insn.op1, insn.op2, insn1.op2);
+				jump(mv, ip + 2, start, end, labels);
+			} else
+				interpret(mv, ip);
+			break;
+		case FORMTREE______:
+			formTree(mv, TermOp.values()[insn.op4], insn.op1, insn.op2,
+					insn.op3);
+			break;
+		case IFFALSE_______:
+			Label isTrue = new Label();
+			loadReg(mv, insn.op2);
+			loadConstant(mv, trueAtom, nodeName);
+			mv.visitJumpInsn(IF_ACMPEQ, isTrue);
+			jump(mv, insn.op1, start, end, labels);
+			mv.visitLabel(isTrue);
+			break;
+		case IFFALSEEQ_____:
+			compareAndJump(mv, insn, IF_ICMPEQ, start, end, labels);
+			break;
+		case IFFALSEGE_____:
+			compareAndJump(mv, insn, IF_ICMPGE, start, end, labels);
+			break;
+		case IFFALSEGT_____:
+			compareAndJump(mv, insn, IF_ICMPGT, start, end, labels);
+			break;
+		case IFFALSELE_____:
+			compareAndJump(mv, insn, IF_ICMPLE, start, end, labels);
+			break;
+		case IFFALSELT_____:
+			compareAndJump(mv, insn, IF_ICMPLT, start, end, labels);
+			break;
+		case IFFALSENE_____:
+			compareAndJump(mv, insn, IF_ICMPNE, start, end, labels);
+			break;
+		case IFNOTEQUALS___:
+			Label isEqual = new Label();
+			loadReg(mv, insn.op2);
+			loadReg(mv, insn.op3);
+			mv.visitJumpInsn(IF_ACMPEQ, isEqual);
+			jump(mv, insn.op1, start, end, labels);
+			mv.visitLabel(isEqual);
+			break;
+		case JUMP__________:
+			jump(mv, insn.op1, start, end, labels);
+			break;
+		case LABEL_________:
+		case REMARK________:
+			break;
+		default:
+			interpret(mv, ip);
+		}
+	}
+
+	private void arithmetic(MethodVisitor mv, Instruction insn, int opcode) {
+		if (insn.isUnboxed1)
+			loadInts(mv, insn.op1);
+		else
+			loadRegs(mv, insn.op1);
+
+		loadInt(mv, insn.op2, insn.isUnboxed2);
+		loadInt(mv, insn.op3, insn.isUnboxed3);
+		mv.visitInsn(opcode);
+
+		if (insn.isUnboxed1)
+			mv.visitInsn(IASTORE);
+		else {
+			createInt(mv);
+			mv.visitInsn(AASTORE);
+		}
+	}
+
+	private void compare(MethodVisitor mv, Instruction insn, int opcode) {
+		Label isTrue = new Label(), done = new Label();
+		loadRegs(mv, insn.op1);
+		loadInt(mv, insn.op2, insn.isUnboxed2);
+		loadInt(mv, insn.op3, insn.isUnboxed3);
+		mv.visitJumpInsn(opcode, isTrue);
+		loadConstant(mv, falseAtom, nodeName);
+		mv.visitJumpInsn(GOTO, done);
+		mv.visitLabel(isTrue);
+		loadConstant(mv, trueAtom, nodeName);
+		mv.visitLabel(done);
+		mv.visitInsn(AASTORE);
+	}
+
+	// Assigns the condition, then jumps to the first operand if it is false
+	private void compareAndJump(MethodVisitor mv, Instruction insn,
+			int opcode, int start, int end, Label labels[]) {
+		Label isTrue = new Label();
+		loadInt(mv, insn.op2, insn.isUnboxed2);
+		loadInt(mv, insn.op3, insn.isUnboxed3);
+		mv.visitJumpInsn(opcode, isTrue);
+		loadRegs(mv, insn.op4);
+		loadConstant(mv, falseAtom, nodeName);
+		mv.visitInsn(AASTORE);
+		jump(mv, insn.op1, start, end, labels);
+		mv.visitLabel(isTrue);
+		loadRegs(mv, insn.op4);
+		loadConstant(mv, trueAtom, nodeName);
+		mv.visitInsn(AASTORE);
+	}
+
+	private void formTree(MethodVisitor mv, TermOp operator, int left,
+			int right, int reg) {
+		loadRegs(mv, reg);
+		mv.visitTypeInsn(NEW, treeName);
+		mv.visitInsn(DUP);
+		loadConstant(mv, operator, operatorName);
+		loadReg(mv, left);
+		loadReg(mv, right);
+		mv.visitMethodInsn(INVOKESPECIAL, treeName, "<init>", "(L"
+				+ operatorName + ";L" + nodeName + ";L" + nodeName + ";)V",
+				false);
+		mv.visitInsn(AASTORE);
+	}
+
+	private void jump(MethodVisitor mv, int target, int start, int end,
+			Label labels[]) {
+		if (start <= target && target < end)
+			mv.visitJumpInsn(GOTO, labels[target - start]);
+		else
+			continueAt(mv, target);
+	}
+
+	private void continueAt(MethodVisitor mv, int ip) {
+		pushInt(mv, ~ip);
+		mv.visitInsn(IRETURN);
+	}
+
+	private void interpret(MethodVisitor mv, int ip) {
+		pushInt(mv, ip);
+		mv.visitInsn(IRETURN);
+	}
+
+	private void loadRegs(MethodVisitor mv, int reg) {
+		mv.visitVarInsn(ALOAD, 1);
+		pushInt(mv, reg);
+	}
+
+	private void loadReg(MethodVisitor mv, int reg) {
+		loadRegs(mv, reg);
+		mv.visitInsn(AALOAD);
+	}
+
+	private void loadInts(MethodVisitor mv, int reg) {
+		mv.visitVarInsn(ALOAD, 2);
+		pushInt(mv, reg);
+	}
+
+	private void loadInt(MethodVisitor mv, int reg, boolean isUnboxed) {
+		if (isUnboxed) {
+			loadInts(mv, reg);
+			mv.visitInsn(IALOAD);
+		} else {
+			loadReg(mv, reg);
+			mv.visitTypeInsn(CHECKCAST, intName);
+			mv.visitMethodInsn(INVOKEVIRTUAL, intName, "getNumber", "()I",
+					false);
+		}
+	}
+
+	private void createInt(MethodVisitor mv) {
+		mv.visitMethodInsn(INVOKESTATIC, intName, "create", "(I)L" + intName
+				+ ";", false);
+	}
+
+	private void loadConstant(MethodVisitor mv, Object constant, String type) {
+		Integer index = constantIndices.get(constant);
+
+		if (index == null) {
+			constantIndices.put(constant, index = constants.size());
+			constants.add(constant);
+		}
+
+		mv.visitVarInsn(ALOAD, 0);
+		pushInt(mv, index);
+		mv.visitInsn(AALOAD);
+		mv.visitTypeInsn(CHECKCAST, type);
+	}
+
+	private static void pushInt(MethodVisitor mv, int i) {
+		if (-1 <= i && i <= 5)
+			mv.visitInsn(ICONST_0 + i);
+		else if (Byte.MIN_VALUE <= i && i <= Byte.MAX_VALUE)
+			mv.visitIntInsn(BIPUSH, i);
+		else if (Short.MIN_VALUE <= i && i <= Short.MAX_VALUE)
+			mv.visitIntInsn(SIPUSH, i);
+		else
+			mv.visitLdcInsn(i);
+	}
+
+	private static String name(Class<?> clazz) {
+		return clazz.getName().replace('.', '/');
+	}
+
+	// Each generated class gets its own loader, so that it can be unloaded
+	// together with the executor holding it
+	private static class CodeClassLoader extends ClassLoader {
+		private CodeClassLoader() {
+			super(JitCompiler.class.getClassLoader());
+		}
+
+		private Class<?> define(String name, byte bytes[]) {
+			return defineClass(name, bytes, 0, bytes.length);
+		}
+	}
+
+}
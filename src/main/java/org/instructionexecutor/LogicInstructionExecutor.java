@@ -1,77 +1,403 @@
 package org.instructionexecutor;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
+import org.instructionexecutor.InstructionExecutorUtil.CallStack;
 import org.instructionexecutor.InstructionExecutorUtil.Closure;
-import org.instructionexecutor.InstructionExecutorUtil.CutPoint;
+import org.instructionexecutor.InstructionExecutorUtil.Copier;
+import org.instructionexecutor.InstructionExecutorUtil.CutPointStack;
 import org.instructionexecutor.InstructionExecutorUtil.Frame;
 import org.instructionexecutor.InstructionExecutorUtil.Instruction;
+import org.instructionexecutor.InstructionExecutorUtil.IntStack;
+import org.instructionexecutor.InstructionExecutorUtil.Stack;
 import org.suite.Binder;
 import org.suite.Journal;
+import org.suite.doer.Cloner;
 import org.suite.doer.Prover;
+import org.suite.node.Atom;
 import org.suite.node.Node;
 import org.suite.predicates.SystemPredicates;
-import org.util.Util;
 
 public class LogicInstructionExecutor extends InstructionExecutor {
 
+	// Fork register values; the copied one is seen by the forked search only
+	private static final Atom notForked = Atom.create("NOT-FORKED");
+	private static final Atom forked = Atom.create("FORKED");
+	private static final Atom copied = Atom.create("COPIED");
+
+	private Prover prover;
 	private Journal journal;
 	private SystemPredicates systemPredicates;
 
-	private static final int stackSize = 4096;
+	private IntStack bindPoints = new IntStack(defaultStackLimit);
+	private CutPointStack cutPoints = new CutPointStack(defaultStackLimit);
+
+	private Search search;
+	private List<Search> forks = new ArrayList<Search>(); // Not joined yet
+
+	/**
+	 * Searches the alternatives after a choice point in a fork/join pool, by
+	 * an executor with a copy of the states there. The forking search joins
+	 * it when reaching those alternatives itself, and takes its solutions
+	 * after its own, so that they come in the sequential order.
+	 * 
+	 * A forked search is cancelled if the forking one cuts the alternatives
+	 * off before joining. If the forked search cuts a call entered before the
+	 * fork, it stops there and leaves the cut to the forking one.
+	 */
+	private static class Search extends RecursiveAction {
+		private static final long serialVersionUID = 1l;
 
-	private int bindPoints[] = new int[stackSize];
-	private List<CutPoint> cutPoints = new ArrayList<CutPoint>();
-	private int bsp = 0;
+		private LogicInstructionExecutor executor;
+		private Search parent;
+		private int depth; // Number of forks not joined above this search
+		private int cutoffDepth;
+		private int nCutPoints; // Copied from the forking search
+		private List<Node> solutions = new ArrayList<Node>();
+		private int cutPointIndex = -1; // Left to the forking search
+
+		private Search(LogicInstructionExecutor executor, Search parent,
+				int depth, int cutoffDepth, int nCutPoints) {
+			this.executor = executor;
+			this.parent = parent;
+			this.depth = depth;
+			this.cutoffDepth = cutoffDepth;
+			this.nCutPoints = nCutPoints;
+		}
+
+		protected void compute() {
+			try {
+				executor.searchSolutions();
+			} catch (RuntimeException ex) {
+				executor.cancelForks(-1);
+				throw ex;
+			}
+		}
+
+		private boolean isCutOff() {
+			for (Search search = this; search != null; search = search.parent)
+				if (search.isCancelled())
+					return true;
+			return false;
+		}
+	}
 
 	public LogicInstructionExecutor(Prover prover, Node node) {
 		super(node);
+		this.prover = prover;
+		journal = prover.getJournal();
+		systemPredicates = new SystemPredicates(prover);
+	}
+
+	// Forked searches have their own journals, tables and system predicate
+	// states
+	private LogicInstructionExecutor(LogicInstructionExecutor executor) {
+		super(executor);
+		prover = new Prover(executor.prover.getRuleSet());
 		journal = prover.getJournal();
 		systemPredicates = new SystemPredicates(prover);
+		bindPoints = new IntStack(getStackLimit());
+		cutPoints = new CutPointStack(getStackLimit());
+	}
+
+	/**
+	 * Iterates the solutions of a program compiled by compile-logic-solutions,
+	 * each being the goal instantiated by the solution. The next solution is
+	 * searched on demand, by backtracking from where the last one was found.
+	 */
+	public Iterator<Node> solutions() {
+		return new Iterator<Node>() {
+			private boolean isStarted, isEnded;
+			private Node solution;
+
+			public boolean hasNext() {
+				if (solution == null && !isEnded) {
+					Node node = isStarted ? resume() : executeThreaded();
+					isStarted = true;
+
+					if (isSuspended())
+						solution = node;
+					else
+						isEnded = true;
+				}
+
+				return solution != null;
+			}
+
+			public Node next() {
+				if (hasNext()) {
+					Node node = solution;
+					solution = null;
+					return node;
+				} else
+					throw new NoSuchElementException();
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/**
+	 * Finds all solutions of a program compiled by compile-logic-parallel.
+	 * Alternatives of the choice points marked in the program are searched in
+	 * parallel, by copying the search states at each of them, while fewer
+	 * than the specified number of such choice points are open on the way
+	 * from the start; below that the search is sequential.
+	 * 
+	 * @return the instantiated goals, in the order of a sequential search.
+	 */
+	public List<Node> findAllParallel(ForkJoinPool pool, int cutoffDepth) {
+		search = new Search(this, null, 0, cutoffDepth, 0);
+		pool.invoke(search);
+		return search.solutions;
+	}
+
+	private void searchSolutions() {
+		Node node = current != null ? resume() : executeThreaded();
+
+		while (isSuspended()) {
+			search.solutions.add(node);
+			node = resume();
+		}
+	}
+
+	// Lets another executor search from the specified instruction, with a
+	// copy of the current states. Bindings made before are not undone by
+	// that one, so its journal starts from here.
+	private Search fork(int ip) {
+		LogicInstructionExecutor executor = new LogicInstructionExecutor(this);
+		copyStates(executor, new Copier(), ip);
+		executor.journal.startFrom(journal.getPointInTime());
+
+		for (int i = 0; i < bindPoints.size(); i++)
+			executor.bindPoints.push(bindPoints.get(i));
+
+		for (int i = 0; i < cutPoints.size(); i++)
+			executor.cutPoints.push(cutPoints.getJournalPointer(i), //
+					cutPoints.getBindPointer(i), //
+					cutPoints.getCallStackPointer(i), //
+					cutPoints.getDataStackPointer(i));
+
+		int depth = search.depth + forks.size() + 1;
+		executor.search = new Search(executor, search, depth,
+				search.cutoffDepth, cutPoints.size());
+		executor.search.fork();
+		return executor.search;
+	}
+
+	// Forks while fewer than the cutoff depth of forks are not joined
+	private boolean isForking() {
+		return search != null
+				&& search.depth + forks.size() < search.cutoffDepth;
+	}
+
+	// Takes the solutions of the forked search after those found here, and
+	// makes the cut it left
+	private void join(Search fork) {
+		fork.join();
+		search.solutions.addAll(fork.solutions);
+
+		if (fork.cutPointIndex >= 0)
+			if (!leaveCut(fork.cutPointIndex)) {
+				cutFail(fork.cutPointIndex, callStack, dataStack);
+				callStack.pop(current); // Returns as the failed call does
+			}
+	}
+
+	// Cancels the forked searches of the alternatives cut off by the cut
+	// point, i.e. those forked in the call since
+	private void cancelForks(int cutPointIndex) {
+		int i = forks.size();
+		while (i > 0 && cutPointIndex < forks.get(i - 1).nCutPoints)
+			forks.remove(--i).cancel(false);
+	}
+
+	// Stops if the cut point was copied from the forking search, whose
+	// states the cut would backtrack into
+	private boolean leaveCut(int cutPointIndex) {
+		boolean isLeft = search != null && cutPointIndex < search.nCutPoints;
+
+		if (isLeft) {
+			cancelForks(cutPointIndex);
+			search.cutPointIndex = cutPointIndex;
+			exit(falseAtom);
+		}
+
+		return isLeft;
 	}
 
 	@Override
-	protected int[] execute(Closure current, Instruction insn,
-			Closure callStack[], int csp, Object dataStack[], int dsp) {
+	public void setStackLimit(int stackLimit) {
+		super.setStackLimit(stackLimit);
+		bindPoints = new IntStack(stackLimit);
+		cutPoints = new CutPointStack(stackLimit);
+	}
+
+	// Keeps the index of the new cut point in the operand register, unboxed
+	// if it is in the integer bank
+	private void cutBegin(Frame frame, Instruction insn, CallStack callStack,
+			Stack<Node> dataStack) {
+		i(frame, insn, cutPoints.size());
+		cutPoints.push(journal.getPointInTime(), bindPoints.size(),
+				callStack.size(), dataStack.size());
+	}
+
+	// Undoes bindings and discards returns made since the cut point, so that
+	// the call fails as a whole. Parameters pushed by the discarded calls are
+	// dropped too, as their pops would never be reached.
+	private void cutFail(int cutPointIndex, CallStack callStack,
+			Stack<Node> dataStack) {
+		cancelForks(cutPointIndex);
+		journal.undoBinds(cutPoints.getJournalPointer(cutPointIndex));
+		bindPoints.setSize(cutPoints.getBindPointer(cutPointIndex));
+		callStack.truncate(cutPoints.getCallStackPointer(cutPointIndex));
+		dataStack.truncate(cutPoints.getDataStackPointer(cutPointIndex));
+		cutPoints.truncate(cutPointIndex);
+	}
+
+	@Override
+	protected void execute(Closure current, Instruction insn,
+			CallStack callStack, Stack<Node> dataStack) {
 		Frame frame = current.frame;
 		Object regs[] = frame != null ? frame.registers : null;
 
 		switch (insn.insn) {
 		case BIND__________:
-			bindPoints[bsp++] = journal.getPointInTime();
+			bindPoints.push(journal.getPointInTime());
 			if (!Binder.bind( //
 					(Node) regs[insn.op1], (Node) regs[insn.op2], journal))
 				current.ip = insn.op3; // Fail
 			break;
 		case BINDUNDO______:
-			journal.undoBinds(bindPoints[--bsp]);
+			journal.undoBinds(bindPoints.pop());
 			break;
 		case CUTBEGIN______:
-			regs[insn.op1] = i(cutPoints.size());
-			cutPoints.add(new CutPoint(journal.getPointInTime(), csp));
+			cutBegin(frame, insn, callStack, dataStack);
 			break;
 		case CUTEND________:
-			int p = cutPoints.get(g(regs[insn.op1])).callStackPointer;
-			while (csp > p)
-				callStack[--csp] = null;
+			int p = cutPoints.getCallStackPointer(g1(frame, insn));
+			callStack.truncate(p);
 			break;
 		case CUTFAIL_______:
-			int cutPointIndex = g(regs[insn.op1]);
-			CutPoint cutPoint = cutPoints.get(cutPointIndex);
-			journal.undoBinds(cutPoint.journalPointer);
-			Util.truncate(cutPoints, cutPointIndex);
+			cutFail(g1(frame, insn), callStack, dataStack);
 			current.ip = insn.op2;
 			break;
+		case FORK__________: // Searches sequentially
+			regs[insn.op1] = notForked;
+			break;
+		case FORKALT_______:
+		case FORKEND_______:
+			break;
 		case PROVESYS______:
 			if (!systemPredicates.call((Node) regs[insn.op1]))
 				current.ip = insn.op2;
 			break;
+		case YIELD_________:
+			throw new RuntimeException("YIELD requires iterating solutions");
 		default:
-			return super.execute(current, insn, callStack, csp, dataStack, dsp);
+			super.execute(current, insn, callStack, dataStack);
 		}
+	}
+
+	@Override
+	protected Handler link(final Instruction insn) {
+		switch (insn.insn) {
+		case BIND__________:
+			return new Handler(insn) {
+				protected void handle() {
+					Node regs[] = current.frame.registers;
+					bindPoints.push(journal.getPointInTime());
+					if (!Binder.bind(regs[op1], regs[op2], journal))
+						current.ip = op3; // Fail
+				}
+			};
+		case BINDUNDO______:
+			return new Handler(insn) {
+				protected void handle() {
+					journal.undoBinds(bindPoints.pop());
+				}
+			};
+		case CUTBEGIN______:
+			return new Handler(insn) {
+				protected void handle() {
+					if (search == null || !search.isCutOff())
+						cutBegin(current.frame, insn, callStack, dataStack);
+					else
+						exit(falseAtom); // Cancelled
+				}
+			};
+		case CUTEND________:
+			return new Handler(insn) {
+				protected void handle() {
+					Frame frame = current.frame;
+					int p = cutPoints.getCallStackPointer(g1(frame, insn));
+					callStack.truncate(p);
+				}
+			};
+		case CUTFAIL_______:
+			return new Handler(insn) {
+				protected void handle() {
+					int cutPointIndex = g1(current.frame, insn);
 
-		return new int[] { csp, dsp };
+					if (!leaveCut(cutPointIndex)) {
+						cutFail(cutPointIndex, callStack, dataStack);
+						current.ip = op2;
+					}
+				}
+			};
+		case FORK__________:
+			return new Handler(insn) {
+				protected void handle() {
+					Node regs[] = current.frame.registers;
+
+					if (isForking()) {
+						regs[op1] = copied;
+						forks.add(fork(op2));
+						regs[op1] = forked;
+					} else
+						regs[op1] = notForked;
+				}
+			};
+		case FORKALT_______:
+			return new Handler(insn) {
+				protected void handle() {
+					if (current.frame.registers[op1] == forked) {
+						current.ip = op2; // Searched by the forked one
+						join(forks.remove(forks.size() - 1));
+					}
+				}
+			};
+		case FORKEND_______:
+			return new Handler(insn) {
+				protected void handle() {
+					if (current.frame.registers[op1] == copied)
+						exit(falseAtom); // Leaves the rest to the original
+				}
+			};
+		case PROVESYS______:
+			return new Handler(insn) {
+				protected void handle() {
+					if (!systemPredicates.call(current.frame.registers[op1]))
+						current.ip = op2;
+				}
+			};
+		case YIELD_________:
+			return new Handler(insn) {
+				protected void handle() {
+					Node node = current.frame.registers[op1];
+					suspend(new Cloner().clone(node)); // Detaches from bindings
+				}
+			};
+		default:
+			return super.link(insn);
+		}
 	}
 
 }
@@ -0,0 +1,76 @@
+package org.instructionexecutor;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Output written by byte position. Bytes written in order are sent out
+ * whenever the fixed-size buffer fills up; once positions are written out of
+ * order, the buffer keeps everything until flushed. Unwritten positions are
+ * output as zeros.
+ */
+public class OutputWindow {
+
+	private static final int windowSize = 1 << 16;
+
+	private OutputStream out;
+	private WritableByteChannel channel;
+	private byte window[] = new byte[windowSize];
+	private int start; // Position of the first buffered byte
+	private int length;
+	private boolean isInOrder = true;
+
+	public OutputWindow(OutputStream out) {
+		this.out = out;
+		channel = Channels.newChannel(out);
+	}
+
+	public void put(int p, int c) throws IOException {
+		int i = p - start;
+
+		if (i < 0)
+			throw new RuntimeException("Output position " + p
+					+ " is already written out");
+
+		isInOrder &= i == length;
+
+		if (i >= window.length)
+			if (isInOrder) {
+				write();
+				start += length;
+				length = i = 0;
+			} else
+				window = Arrays.copyOf(window,
+						Math.max(i + 1, window.length * 2));
+
+		window[i] = (byte) c;
+		length = Math.max(length, i + 1);
+	}
+
+	/**
+	 * Writes out everything buffered. Positions start from zero again.
+	 */
+	public void flush() throws IOException {
+		write();
+		out.flush();
+
+		if (window.length == windowSize)
+			Arrays.fill(window, 0, length, (byte) 0);
+		else
+			window = new byte[windowSize];
+
+		start = length = 0;
+		isInOrder = true;
+	}
+
+	private void write() throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(window, 0, length);
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+	}
+
+}
@@ -0,0 +1,141 @@
+package org.instructionexecutor;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.management.ObjectName;
+
+import org.instructionexecutor.InstructionExecutorUtil.Instruction;
+import org.suite.node.Node;
+
+/**
+ * Execution profile of an instruction executor: execution counts of each
+ * instruction, call counts of each call target and maximum stack depths.
+ * Counts by opcode and allocations are derived from the instruction counts.
+ * 
+ * Set into an executor by InstructionExecutor.setProfiler().
+ */
+public class Profiler implements ProfilerMBean {
+
+	private Instruction instructions[];
+	private Node sources[];
+	private String allocations[];
+
+	private long counts[] = new long[0];
+	private long callCounts[] = new long[0];
+	private int maxCallStackDepth, maxDataStackDepth;
+
+	protected void setProgram(Instruction instructions[], Node sources[],
+			String allocations[]) {
+		this.instructions = instructions;
+		this.sources = sources;
+		this.allocations = allocations;
+		reset();
+	}
+
+	protected void count(int ip) {
+		counts[ip]++;
+	}
+
+	protected void call(int ip, int depth) {
+		callCounts[ip]++;
+		maxCallStackDepth = Math.max(maxCallStackDepth, depth);
+	}
+
+	protected void push(int depth) {
+		maxDataStackDepth = Math.max(maxDataStackDepth, depth);
+	}
+
+	/**
+	 * Registers to the platform MBean server, to be watched by JMX clients.
+	 */
+	public void register(String name) {
+		try {
+			ObjectName objectName = new ObjectName(
+					"org.instructionexecutor:type=Profiler,name=" + name);
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+					objectName);
+		} catch (Exception ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
+	public long getInstructionCount() {
+		long total = 0;
+		for (long count : counts)
+			total += count;
+		return total;
+	}
+
+	public int getMaxCallStackDepth() {
+		return maxCallStackDepth;
+	}
+
+	public int getMaxDataStackDepth() {
+		return maxDataStackDepth;
+	}
+
+	public Map<String, Long> getInstructionCounts() {
+		Map<String, Long> results = new TreeMap<String, Long>();
+		for (int ip = 0; ip < counts.length; ip++)
+			add(results, instructions[ip].insn.name, counts[ip]);
+		return results;
+	}
+
+	public Map<String, Long> getAllocationCounts() {
+		Map<String, Long> results = new TreeMap<String, Long>();
+		for (int ip = 0; ip < counts.length; ip++)
+			if (allocations[ip] != null)
+				add(results, allocations[ip], counts[ip]);
+		return results;
+	}
+
+	/**
+	 * Lists executed instructions, most frequent first, by their lines in
+	 * the compiled code listing.
+	 */
+	public String getFlatProfile() {
+		long total = Math.max(getInstructionCount(), 1);
+		Integer ips[] = new Integer[counts.length];
+
+		for (int ip = 0; ip < ips.length; ip++)
+			ips[ip] = ip;
+
+		Arrays.sort(ips, new Comparator<Integer>() {
+			public int compare(Integer ip0, Integer ip1) {
+				long c0 = counts[ip0], c1 = counts[ip1];
+				return c0 != c1 ? (c0 > c1 ? -1 : 1) : ip0 - ip1;
+			}
+		});
+
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("%7s %12s %10s  %s\n" //
+				, "%", "count", "calls", "code"));
+
+		for (int ip : ips)
+			if (counts[ip] > 0)
+				sb.append(String.format("%6.2f%% %12d %10d  %s\n" //
+						, 100.0 * counts[ip] / total //
+						, counts[ip] //
+						, callCounts[ip] //
+						, sources[instructions[ip].sourceIp]));
+
+		return sb.toString();
+	}
+
+	public void reset() {
+		int length = instructions != null ? instructions.length : 0;
+		counts = new long[length];
+		callCounts = new long[length];
+		maxCallStackDepth = maxDataStackDepth = 0;
+	}
+
+	private static void add(Map<String, Long> map, String key, long n) {
+		Long count = map.get(key);
+		map.put(key, (count != null ? count : 0l) + n);
+	}
+
+}
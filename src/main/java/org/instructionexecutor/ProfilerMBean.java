@@ -0,0 +1,21 @@
+package org.instructionexecutor;
+
+import java.util.Map;
+
+public interface ProfilerMBean {
+
+	public long getInstructionCount();
+
+	public int getMaxCallStackDepth();
+
+	public int getMaxDataStackDepth();
+
+	public Map<String, Long> getInstructionCounts();
+
+	public Map<String, Long> getAllocationCounts();
+
+	public String getFlatProfile();
+
+	public void reset();
+
+}
@@ -0,0 +1,297 @@
+package org.instructionexecutor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.suite.doer.TermParser.TermOp;
+import org.suite.node.Atom;
+import org.suite.node.Int;
+import org.suite.node.Node;
+import org.suite.node.Str;
+import org.suite.node.Tree;
+import org.suite.node.Vector;
+import org.util.Util;
+
+/**
+ * Registry of system calls invoked by SYS instructions. The executor resolves
+ * the call atoms to indices once when it is created, and pops the parameters
+ * off the data stack before invoking the call.
+ */
+public class SysCalls {
+
+	public interface SysCall {
+
+		/**
+		 * Parameters are in the order they are applied. The array is reused
+		 * between calls and must not be retained.
+		 */
+		public Node call(FunctionInstructionExecutor executor, Node parameters[]);
+	}
+
+	private List<Atom> atoms = new ArrayList<Atom>();
+	private List<SysCall> sysCalls = new ArrayList<SysCall>();
+	private List<Integer> arities = new ArrayList<Integer>();
+	private Map<Atom, Integer> indices = Util.createHashMap();
+
+	public SysCalls() {
+		addSysCall("CONS", 2, new Cons());
+		addSysCall("EMPTY", 0, new Empty());
+		addSysCall("FFLUSH", 1, new Fflush());
+		addSysCall("FGETC", 1, new Fgetc());
+		addSysCall("FPUTC", 3, new Fputc());
+		addSysCall("HEAD", 1, new Head());
+		addSysCall("IS-TREE", 1, new IsTree());
+		addSysCall("IS-VECTOR", 1, new IsVector());
+		addSysCall("LOG", 1, new Log());
+		addSysCall("LOG2", 2, new Log2());
+		addSysCall("TAIL", 1, new Tail());
+
+		addSysCall("VCONCAT", 2, new VConcat());
+		addSysCall("VELEM", 1, new VElem());
+		addSysCall("VEMPTY", 0, new VEmpty());
+		addSysCall("VHEAD", 1, new VHead());
+		addSysCall("VRANGE", 3, new VRange());
+		addSysCall("VTAIL", 1, new VTail());
+
+		addSysCall("IVAPPEND", 2, new IvAppend());
+		addSysCall("IVGET", 2, new IvGet());
+		addSysCall("IVLENGTH", 1, new IvLength());
+		addSysCall("IVNEW", 2, new IvNew());
+		addSysCall("IVSET", 3, new IvSet());
+
+		addSysCall("STRCHAR", 2, new StrChar());
+		addSysCall("STRCONCAT", 2, new StrConcat());
+		addSysCall("STRLENGTH", 1, new StrLength());
+		addSysCall("STROFINT", 1, new StrOfInt());
+		addSysCall("STROFIVECTOR", 1, new StrOfIvector());
+	}
+
+	/**
+	 * Registers a system call, or replaces the one with the same name.
+	 */
+	public void addSysCall(String name, int arity, SysCall sysCall) {
+		Atom atom = Atom.create(name);
+		Integer index = indices.get(atom);
+
+		if (index != null) {
+			sysCalls.set(index, sysCall);
+			arities.set(index, arity);
+		} else {
+			indices.put(atom, sysCalls.size());
+			atoms.add(atom);
+			sysCalls.add(sysCall);
+			arities.add(arity);
+		}
+	}
+
+	protected int getIndex(Node node) {
+		Integer index = indices.get(node);
+		if (index != null)
+			return index;
+		else
+			throw new RuntimeException("Unknown system call " + node);
+	}
+
+	protected SysCall[] getSysCalls() {
+		return sysCalls.toArray(new SysCall[sysCalls.size()]);
+	}
+
+	protected int getArity(int index) {
+		return arities.get(index);
+	}
+
+	protected Atom getAtom(int index) {
+		return atoms.get(index);
+	}
+
+	private static class Cons implements SysCall {
+		public Node call(FunctionInstructionExecutor executor, Node ps[]) {
+			return new Tree(TermOp.AND___, ps[0], ps[1]);
+		}
+	}
+
+	private static class Empty implements SysCall {
+		public Node call(FunctionInstructionExecutor executor, Node ps[]) {
+			return Atom.nil;
+		}
+	}
+
+	private static class Fflush implements SysCall {
+		public Node call(FunctionInstructionExecutor executor, Node ps[]) {
+			executor.fflush();
+			return ps[0];
+		}
+	}
+
+	private static class Fgetc implements SysCall {
+		public Node call(FunctionInstructionExecutor executor, Node ps[]) {
+			return Int.create(executor.fgetc(i(ps[0])));
+		}
+	}
+
+	private static class Fputc implements SysCall {
+		public Node call(FunctionInstructionExecutor executor, Node ps[]) {
+			executor.fputc(i(ps[0]), i(ps[1]));
+			return ps[2];
+		}
+	}
+
+	private static class Head implements SysCall {
+		public Node call(FunctionInstructionExecutor executor, Node ps[]) {
+			return Tree.decompose(ps[0]).getLeft();
+		}
+	}
+
+	private static class IsTree implements SysCall {
+		public Node call(FunctionInstructionExecutor executor, Node ps[]) {
+			return InstructionExecutor.a(Tree.decompose(ps[0]) != null);
+		}
+	}
+
+	private static class IsVector implements SysCall {
+		public Node call(FunctionInstructionExecutor executor, Node ps[]) {
+			return InstructionExecutor.a(ps[0] instanceof Vector);
+		}
+	}
+
+	private static class Log implements SysCall {
+		public Node call(FunctionInstructionExecutor executor, Node ps[]) {
+			System.err.println(ps[0]);
+			return ps[0];
+		}
+	}
+
+	private static class Log2 implements SysCall {
+		public Node call(FunctionInstructionExecutor executor, Node ps[]) {
+			System.err.println(ps[0]);
+			return ps[1];
+		}
+	}
+
+	private static class Tail implements SysCall {
+		public Node call(FunctionInstructionExecutor executor, Node ps[]) {
+			return Tree.decompose(ps[0]).getRight();
+		}
+	}
+
+	private static class VConcat implements SysCall {
+		public Node call(FunctionInstructionExecutor executor, Node ps[]) {
+			return Vector.concat((Vector) ps[0], (Vector) ps[1]);
+		}
+	}
+
+	private static class VElem implements SysCall {
+		public Node call(FunctionInstructionExecutor executor, Node ps[]) {
+			return new Vector(ps[0]);
+		}
+	}
+
+	private static class VEmpty implements SysCall {
+		public Node call(FunctionInstructionExecutor executor, Node ps[]) {
+			return Vector.EMPTY;
+		}
+	}
+
+	private static class VHead implements SysCall {
+		public Node call(FunctionInstructionExecutor executor, Node ps[]) {
+			return ((Vector) ps[0]).get(0);
+		}
+	}
+
+	private static class VRange implements SysCall {
+		public Node call(FunctionInstructionExecutor executor, Node ps[]) {
+			return ((Vector) ps[0]).subVector(i(ps[1]), i(ps[2]));
+		}
+	}
+
+	private static class VTail implements SysCall {
+		public Node call(FunctionInstructionExecutor executor, Node ps[]) {
+			return ((Vector) ps[0]).subVector(1, 0);
+		}
+	}
+
+	// Integer vectors; the vector is the last parameter for easy currying
+
+	private static class IvAppend implements SysCall {
+		public Node call(FunctionInstructionExecutor executor, Node ps[]) {
+			return Vector.concat((Vector) ps[1], new Vector(ps[0]));
+		}
+	}
+
+	private static class IvGet implements SysCall {
+		public Node call(FunctionInstructionExecutor executor, Node ps[]) {
+			return ((Vector) ps[1]).get(i(ps[0]));
+		}
+	}
+
+	private static class IvLength implements SysCall {
+		public Node call(FunctionInstructionExecutor executor, Node ps[]) {
+			return Int.create(((Vector) ps[0]).length());
+		}
+	}
+
+	private static class IvNew implements SysCall {
+		public Node call(FunctionInstructionExecutor executor, Node ps[]) {
+			Node nodes[] = new Node[i(ps[0])];
+			Arrays.fill(nodes, ps[1]);
+			return new Vector(nodes);
+		}
+	}
+
+	private static class IvSet implements SysCall {
+		public Node call(FunctionInstructionExecutor executor, Node ps[]) {
+			Vector vector = (Vector) ps[2];
+			Node nodes[] = vector.toArray();
+			nodes[i(ps[0])] = ps[1];
+			return new Vector(nodes);
+		}
+	}
+
+	// Strings
+
+	private static class StrChar implements SysCall {
+		public Node call(FunctionInstructionExecutor executor, Node ps[]) {
+			return Int.create(s(ps[1]).charAt(i(ps[0])));
+		}
+	}
+
+	private static class StrConcat implements SysCall {
+		public Node call(FunctionInstructionExecutor executor, Node ps[]) {
+			return new Str(s(ps[0]) + s(ps[1]));
+		}
+	}
+
+	private static class StrLength implements SysCall {
+		public Node call(FunctionInstructionExecutor executor, Node ps[]) {
+			return Int.create(s(ps[0]).length());
+		}
+	}
+
+	private static class StrOfInt implements SysCall {
+		public Node call(FunctionInstructionExecutor executor, Node ps[]) {
+			return new Str(Integer.toString(i(ps[0])));
+		}
+	}
+
+	private static class StrOfIvector implements SysCall {
+		public Node call(FunctionInstructionExecutor executor, Node ps[]) {
+			Vector vector = (Vector) ps[0];
+			int length = vector.length();
+			StringBuilder sb = new StringBuilder(length);
+			for (int i = 0; i < length; i++)
+				sb.append((char) i(vector.get(i)));
+			return new Str(sb.toString());
+		}
+	}
+
+	private static int i(Node node) {
+		return ((Int) node).getNumber();
+	}
+
+	private static String s(Node node) {
+		return ((Str) node).getValue();
+	}
+
+}
@@ -0,0 +1,159 @@
+package org.suite;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.suite.doer.Cloner;
+import org.suite.doer.Serializer;
+import org.suite.doer.TermParser.TermOp;
+import org.suite.node.Node;
+import org.suite.node.Tree;
+import org.util.IoUtil;
+import org.util.LogUtil;
+import org.util.Util;
+
+/**
+ * Keeps compiled code of programs, so that evaluating the same program again
+ * skips the compiler. Entries are keyed by the program structure and the
+ * compilation mode, and the least recently used ones are evicted beyond the
+ * capacity.
+ *
+ * If a directory is set, entries are also written there in serialized form,
+ * and looked up when missing in memory; the file name is a digest of the key.
+ *
+ * Code is stored before instruction extraction, which binds its registers,
+ * and each lookup returns a fresh copy.
+ */
+public class CompileCache {
+
+	private int capacity;
+	private File directory;
+	private Map<Node, Node> entries;
+	private int hits, misses;
+
+	public CompileCache(int capacity) {
+		this(capacity, null);
+	}
+
+	public CompileCache(int capacity, File directory) {
+		this.capacity = capacity;
+		this.directory = directory;
+
+		entries = new LinkedHashMap<Node, Node>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1l;
+
+			protected boolean removeEldestEntry(Entry<Node, Node> eldest) {
+				return size() > CompileCache.this.capacity;
+			}
+		};
+	}
+
+	public static Node key(Node mode, Node program) {
+		return new Tree(TermOp.TUPLE_, mode, program);
+	}
+
+	/**
+	 * @return a copy of the cached code, or null if it is not cached.
+	 */
+	public synchronized Node get(Node key) {
+		Node code = entries.get(key);
+
+		if (code == null && directory != null)
+			if ((code = load(key)) != null)
+				entries.put(key, code);
+
+		if (code != null) {
+			hits++;
+			return new Cloner().clone(code);
+		} else {
+			misses++;
+			return null;
+		}
+	}
+
+	public synchronized void put(Node key, Node code) {
+		code = new Cloner().clone(code);
+		entries.put(key, code);
+
+		if (directory != null)
+			save(key, code);
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+		hits = misses = 0;
+	}
+
+	private Node load(Node key) {
+		File file = getFile(key);
+
+		if (file.exists())
+			try {
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				IoUtil.copyStream(new FileInputStream(file), out);
+
+				Tree tree = Tree.decompose(Serializer.deserialize(out
+						.toByteArray()));
+				if (tree != null && key.equals(tree.getLeft()))
+					return tree.getRight();
+			} catch (Exception ex) { // Corrupted or incompatible files
+				LogUtil.error(getClass(), ex);
+			}
+
+		return null;
+	}
+
+	private void save(Node key, Node code) {
+		Node node = new Tree(TermOp.TUPLE_, key, code);
+		File file = getFile(key);
+		File temp = new File(file.getPath() + ".tmp");
+
+		try {
+			directory.mkdirs();
+			OutputStream out = new FileOutputStream(temp);
+
+			try {
+				out.write(new Serializer().serialize(node));
+			} finally {
+				out.close();
+			}
+
+			if (!temp.renameTo(file)) {
+				file.delete();
+				temp.renameTo(file);
+			}
+		} catch (IOException ex) {
+			LogUtil.error(getClass(), ex);
+		}
+	}
+
+	// Object hash codes of operators vary between runs; digests do not
+	private File getFile(Node key) {
+		byte bytes[] = new Serializer().serialize(key);
+		return new File(directory, Util.digest(bytes) + ".code");
+	}
+
+	public synchronized int getHits() {
+		return hits;
+	}
+
+	public synchronized int getMisses() {
+		return misses;
+	}
+
+	public synchronized void setCapacity(int capacity) {
+		this.capacity = capacity;
+	}
+
+	public synchronized void setDirectory(File directory) {
+		this.directory = directory;
+	}
+
+}
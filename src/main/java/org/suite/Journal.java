@@ -1,43 +1,130 @@
 package org.suite;
 
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.ListIterator;
 
 import org.suite.node.Node;
 import org.suite.node.Reference;
 
+/**
+ * The trail of bound references, kept in an array so that undoing binds only
+ * unbinds the entries and moves the top.
+ *
+ * References created after the latest marked choice point are bound without
+ * being trailed, since backtracking to any choice point discards them. The
+ * marker moves the boundary back when it drops that choice point, and must
+ * reset it when it stops backtracking, as others could share the journal.
+ * Reference identifiers are compared by their difference, so that the
+ * boundary still works after they wrap around.
+ *
+ * A journal could also continue the trail of another from a point in time,
+ * as a segment above it, for a search copied from there. The bindings before
+ * that point are kept by the copy, and never undone through this journal.
+ */
 public class Journal {
 
-	private List<Reference> bounded = new ArrayList<Reference>();
+	private static final int initialSize = 64;
+
+	private Reference trail[] = new Reference[initialSize];
+	private int base; // Point in time the trail starts from
+	private int size;
+	private int highWaterMark;
+
+	// Identifiers of references not to be trailed start from here, if marked
+	private int boundary;
+	private boolean isMarked;
 
 	public void addBind(Reference reference, Node target) {
 		if (target instanceof Reference
-				&& reference.getId() < ((Reference) target).getId())
+				&& isOlder(reference, ((Reference) target).getId()))
 			addDirectedBind((Reference) target, reference);
 		else
 			addDirectedBind(reference, target);
 	}
 
 	private void addDirectedBind(Reference reference, Node target) {
-		bounded.add(reference);
+		if (!isMarked || isOlder(reference, boundary))
+			trail(reference);
 		reference.bound(target);
 	}
 
+	private static boolean isOlder(Reference reference, int id) {
+		return reference.getId() - id < 0;
+	}
+
+	private void trail(Reference reference) {
+		if (size == trail.length)
+			trail = Arrays.copyOf(trail, size * 2);
+
+		trail[size++] = reference;
+		if (size > highWaterMark)
+			highWaterMark = size;
+	}
+
 	public int getPointInTime() {
-		return bounded.size();
+		return base + size;
+	}
+
+	/**
+	 * Starts the trail of an empty journal at the specified point in time.
+	 */
+	public void startFrom(int pointInTime) {
+		base = pointInTime;
+	}
+
+	/**
+	 * @return the point in time; references created afterwards are not
+	 *         trailed until the boundary is moved or reset.
+	 */
+	public int markChoicePoint() {
+		boundary = Reference.getNextId();
+		isMarked = true;
+		return base + size;
+	}
+
+	/**
+	 * @return the identifier of the first reference not trailed, if marked.
+	 */
+	public int getBoundary() {
+		return boundary;
+	}
+
+	/**
+	 * Moves the boundary back to an earlier mark, when the choice points
+	 * marked since are dropped.
+	 */
+	public void setBoundary(int boundary) {
+		this.boundary = boundary;
+		isMarked = true;
+	}
+
+	/**
+	 * Trails all references again.
+	 */
+	public void resetChoicePoints() {
+		isMarked = false;
 	}
 
 	public void undoBinds(int pointInTime) {
-		ListIterator<Reference> iter = bounded.listIterator(pointInTime);
-		while (iter.hasNext()) {
-			iter.next().unbound();
-			iter.remove();
+		int n = Math.max(pointInTime - base, 0);
+
+		while (size > n) {
+			trail[--size].unbound();
+			trail[size] = null;
 		}
 	}
 
 	public List<Reference> getBinded() {
-		return bounded;
+		return Collections.unmodifiableList(Arrays.asList(trail).subList(0,
+				size));
+	}
+
+	/**
+	 * @return the largest number of trailed references at a time.
+	 */
+	public int getHighWaterMark() {
+		return highWaterMark;
 	}
 
 }
@@ -1,6 +1,7 @@
 package org.suite;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
@@ -48,6 +49,8 @@ public class Main {
 					isLazy = false;
 				else if (arg.startsWith("-filter"))
 					isFilter = true;
+				else if (arg.startsWith("-images="))
+					SuiteUtil.setImageDirectory(new File(arg.substring(8)));
 				else if (arg.startsWith("-functional"))
 					isFunctional = true;
 				else if (arg.startsWith("-lazy"))
@@ -3,10 +3,12 @@ package org.suite;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 
 import org.suite.doer.Prover;
+import org.suite.doer.Serializer;
+import org.suite.node.Atom;
 import org.suite.node.Node;
-import org.util.IoUtil;
 
 /**
  * Performs precompilation.
@@ -18,9 +20,14 @@ public class PrecompileMain {
 	public static void main(String args[]) throws IOException {
 
 		// Clears previous precompilation result
-		File precompiled = new File("precompiled.rpn");
+		File precompiled = new File("precompiled.bin");
 		precompiled.delete();
-		IoUtil.writeStream(new FileOutputStream(precompiled), "\\\n");
+		OutputStream os = new FileOutputStream(precompiled);
+		try {
+			os.write(new Serializer().serialize(Atom.nil));
+		} finally {
+			os.close();
+		}
 
 		// Compiles again
 		String imports[] = { "auto.sl", "fc-precompile.sl" };
@@ -1,20 +1,31 @@
 package org.suite;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 import org.instructionexecutor.FunctionInstructionExecutor;
 import org.instructionexecutor.LogicInstructionExecutor;
 import org.suite.doer.Generalizer;
 import org.suite.doer.Prover;
 import org.suite.doer.TermParser;
+import org.suite.doer.TermParser.TermOp;
 import org.suite.kb.RuleSet;
+import org.suite.kb.RuleSetImage;
 import org.suite.node.Atom;
 import org.suite.node.Node;
 import org.suite.node.Reference;
+import org.suite.node.Str;
+import org.suite.node.Tree;
+import org.util.IoUtil;
+import org.util.LogUtil;
 import org.util.Util;
 
 public class SuiteUtil {
@@ -23,6 +34,16 @@ public class SuiteUtil {
 	private static Prover logicalCompiler;
 	private static Prover eagerFunctionalCompiler;
 	private static Prover lazyFunctionalCompiler;
+	private static final Atom resourceAtom = Atom.create("RESOURCE");
+	private static final Atom fileAtom = Atom.create("FILE");
+	private static CompileCache compileCache = new CompileCache(64);
+	private static ForkJoinPool searchPool;
+
+	// Rule set images of provers are kept here, if set
+	private static File imageDirectory;
+
+	// Sources read while building a rule set image
+	private static List<Node> dependencies;
 
 	// The directory of the file we are now importing
 	private static boolean isImportFromClasspath = false;
@@ -47,6 +68,7 @@ public class SuiteUtil {
 		boolean wasFromClasspath = isImportFromClasspath;
 		String oldRoot = importerRoot;
 		filename = setImporterRoot(false, filename, oldRoot);
+		addDependency(false, filename);
 
 		try {
 			is = new FileInputStream(filename);
@@ -66,6 +88,7 @@ public class SuiteUtil {
 		boolean wasFromClasspath = isImportFromClasspath;
 		String oldRoot = importerRoot;
 		classpath = setImporterRoot(true, classpath, oldRoot);
+		addDependency(true, classpath);
 
 		try {
 			is = cl.getResourceAsStream(classpath);
@@ -105,7 +128,61 @@ public class SuiteUtil {
 
 	public static boolean evaluateLogical(Node program) {
 		Prover lc = getLogicalCompiler();
-		Node node = SuiteUtil.parse("compile-logic .program .code");
+		Node ics = compileLogical(program);
+		Node result = new LogicInstructionExecutor(lc, ics).execute();
+		return result == Atom.create("true");
+	}
+
+	/**
+	 * Iterates all solutions of a logic program, each being the program goal
+	 * instantiated. Solutions are searched one by one as they are consumed.
+	 */
+	public static Iterator<Node> evaluateLogicalSolutions(String program) {
+		return evaluateLogicalSolutions(parse(program));
+	}
+
+	public static Iterator<Node> evaluateLogicalSolutions(Node program) {
+		Prover lc = getLogicalCompiler();
+		Node ics = compileLogical("compile-logic-solutions", program);
+
+		// Uses its own journal, since bindings live across iterations
+		return new LogicInstructionExecutor(new Prover(lc), ics).solutions();
+	}
+
+	/**
+	 * Finds all solutions of a logic program, searching alternatives in
+	 * parallel up to the specified depth of nested forks.
+	 */
+	public static List<Node> evaluateLogicalParallel(String program,
+			int cutoffDepth) {
+		return evaluateLogicalParallel(parse(program), cutoffDepth);
+	}
+
+	public static List<Node> evaluateLogicalParallel(Node program,
+			int cutoffDepth) {
+		Prover lc = getLogicalCompiler();
+		Node ics = compileLogical("compile-logic-parallel", program);
+		LogicInstructionExecutor executor = new LogicInstructionExecutor(
+				new Prover(lc.getRuleSet()), ics); // Not sharing tables
+		return executor.findAllParallel(getSearchPool(), cutoffDepth);
+	}
+
+	private static synchronized ForkJoinPool getSearchPool() {
+		if (searchPool == null)
+			searchPool = new ForkJoinPool();
+		return searchPool;
+	}
+
+	/**
+	 * Compiles a logic program into instructions, without running it.
+	 */
+	public static Node compileLogical(Node program) {
+		return compileLogical("compile-logic", program);
+	}
+
+	private static Node compileLogical(String compile, Node program) {
+		Prover lc = getLogicalCompiler();
+		Node node = SuiteUtil.parse(compile + " .program .code");
 		// + ", pp-list .code"
 
 		Generalizer generalizer = new Generalizer();
@@ -114,16 +191,18 @@ public class SuiteUtil {
 		Node ics = generalizer.getVariable(Atom.create(".code"));
 
 		((Reference) variable).bound(program);
-		if (lc.prove(node)) {
-			Node result = new LogicInstructionExecutor(lc, ics).execute();
-			return result == Atom.create("true");
-		} else
+		if (lc.prove(node))
+			return ics;
+		else
 			throw new RuntimeException("Logic compilation error");
 	}
 
 	public static class FunCompilerConfig {
 		private Node node;
 		private boolean isLazy;
+		private boolean isThreaded;
+		private boolean isJit;
+		private boolean isCached = true;
 		private InputStream in = System.in;
 		private PrintStream out = System.out;
 
@@ -146,6 +225,18 @@ public class SuiteUtil {
 			this.isLazy = isLazy;
 		}
 
+		public void setThreaded(boolean isThreaded) {
+			this.isThreaded = isThreaded;
+		}
+
+		public void setJit(boolean isJit) {
+			this.isJit = isJit;
+		}
+
+		public void setCached(boolean isCached) {
+			this.isCached = isCached;
+		}
+
 		public void setIn(InputStream in) {
 			this.in = in;
 		}
@@ -168,8 +259,41 @@ public class SuiteUtil {
 	}
 
 	public static Node evaluateFunctional(FunCompilerConfig config) {
-		Prover compiler = config.isLazy ? getLazyFunCompiler()
-				: getEagerFunCompiler();
+		FunctionInstructionExecutor e = new FunctionInstructionExecutor(
+				compileFunctional(config));
+		e.setIn(config.in);
+		e.setOut(config.out);
+
+		if (config.isJit)
+			return e.executeJit();
+		else if (config.isThreaded)
+			return e.executeThreaded();
+		else
+			return e.execute();
+	}
+
+	/**
+	 * Compiles a functional program into instructions, without running it.
+	 * Programs compiled before are taken from the compile cache, unless the
+	 * configuration says otherwise.
+	 */
+	public static Node compileFunctional(FunCompilerConfig config) {
+		Atom mode = Atom.create(config.isLazy ? "LAZY" : "EAGER");
+		Node key = CompileCache.key(mode, config.node);
+		Node code = config.isCached ? compileCache.get(key) : null;
+
+		if (code == null) {
+			code = compileFunctional(config.isLazy, mode, config.node);
+			if (config.isCached)
+				compileCache.put(key, code);
+		}
+
+		return code;
+	}
+
+	private static Node compileFunctional(boolean isLazy, Atom mode,
+			Node program) {
+		Prover compiler = isLazy ? getLazyFunCompiler() : getEagerFunCompiler();
 
 		Node node = SuiteUtil.parse("compile-function .mode .program .code");
 		// + ", pp-list .code"
@@ -180,19 +304,18 @@ public class SuiteUtil {
 		Node progRef = generalizer.getVariable(Atom.create(".program"));
 		Node ics = generalizer.getVariable(Atom.create(".code"));
 
-		Atom mode = Atom.create(config.isLazy ? "LAZY" : "EAGER");
-
 		((Reference) modeRef).bound(mode);
-		((Reference) progRef).bound(config.node);
-		if (compiler.prove(node)) {
-			FunctionInstructionExecutor e = new FunctionInstructionExecutor(ics);
-			e.setIn(config.in);
-			e.setOut(config.out);
-			return e.execute();
-		} else
+		((Reference) progRef).bound(program);
+		if (compiler.prove(node))
+			return ics;
+		else
 			throw new RuntimeException("Function compilation error");
 	}
 
+	public static CompileCache getCompileCache() {
+		return compileCache;
+	}
+
 	public static synchronized Prover getLogicalCompiler() {
 		if (logicalCompiler == null)
 			logicalCompiler = getProver(new String[] { "auto.sl", "lc.sl" });
@@ -215,17 +338,115 @@ public class SuiteUtil {
 		return lazyFunctionalCompiler;
 	}
 
-	public static Prover getProver(String toImports[]) {
-		RuleSet rs = new RuleSet();
+	/**
+	 * Creates a prover with the rules imported from given resources. If an
+	 * image directory is set, the rules are restored from the image there
+	 * when it is up-to-date with all sources read during the import, or
+	 * otherwise imported and saved into the image.
+	 */
+	public static synchronized Prover getProver(String toImports[]) {
+		File image = null;
+		RuleSet rs = null;
+
+		if (imageDirectory != null) {
+			StringBuilder sb = new StringBuilder();
+			for (String toImport : toImports)
+				sb.append((sb.length() > 0 ? "," : "") + toImport);
+			image = new File(imageDirectory, sb + ".image");
+			rs = loadImage(image);
+		}
+
+		if (rs == null) {
+			List<Node> dependencies0 = dependencies;
+			dependencies = new ArrayList<Node>();
+			rs = new RuleSet();
+
+			try {
+				for (String toImport : toImports)
+					SuiteUtil.importResource(rs, toImport);
+
+				if (image != null) {
+					imageDirectory.mkdirs();
+					Node stamp = Atom.nil;
+					for (int i = dependencies.size() - 1; i >= 0; i--)
+						stamp = new Tree(TermOp.NEXT__, dependencies.get(i), stamp);
+					RuleSetImage.save(image, stamp, rs);
+				}
+			} catch (IOException ex) {
+				throw new RuntimeException(ex);
+			} finally {
+				dependencies = dependencies0;
+			}
+		}
 
+		return new Prover(rs);
+	}
+
+	private static RuleSet loadImage(File file) {
 		try {
-			for (String toImport : toImports)
-				SuiteUtil.importResource(rs, toImport);
+			RuleSetImage image = RuleSetImage.open(file);
+
+			if (image != null) {
+				Node stamp = image.getStamp();
+				Tree tree;
+				boolean isUpToDate = true;
+
+				while ((tree = Tree.decompose(stamp, TermOp.NEXT__)) != null) {
+					Node dependency = tree.getLeft();
+					Tree t0 = Tree.decompose(dependency);
+					Tree t1 = Tree.decompose(t0.getRight());
+					boolean isFromClasspath = t0.getLeft() == resourceAtom;
+					String name = ((Str) t1.getLeft()).getValue();
+					isUpToDate &= dependency.equals(getDependency(
+							isFromClasspath, name));
+					stamp = tree.getRight();
+				}
+
+				if (isUpToDate)
+					return image.load();
+			}
+		} catch (Exception ex) { // Corrupted images are simply rebuilt
+			LogUtil.error(SuiteUtil.class, ex);
+		}
+
+		return null;
+	}
+
+	/**
+	 * Records a source read, if a rule set image is being built.
+	 */
+	public static synchronized void addDependency(boolean isFromClasspath,
+			String name) {
+		if (dependencies != null)
+			dependencies.add(getDependency(isFromClasspath, name));
+	}
+
+	private static Node getDependency(boolean isFromClasspath, String name) {
+		InputStream is = null;
+		String digest;
+
+		try {
+			if (isFromClasspath)
+				is = SuiteUtil.class.getClassLoader().getResourceAsStream(name);
+			else if (new File(name).exists())
+				is = new FileInputStream(name);
+
+			if (is != null) {
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				IoUtil.copyStream(is, out);
+				digest = Util.digest(out.toByteArray());
+			} else
+				digest = "";
 		} catch (IOException ex) {
 			throw new RuntimeException(ex);
 		}
 
-		return new Prover(rs);
+		Node type = isFromClasspath ? resourceAtom : fileAtom;
+		return Node.list(type, new Str(name), new Str(digest));
+	}
+
+	public static synchronized void setImageDirectory(File directory) {
+		imageDirectory = directory;
 	}
 
 	public static Node parse(String s) {
@@ -17,8 +17,8 @@ public class Generalizer {
 
 	public static final String DEFAULTPREFIX = ".";
 
-	private static final Node WILDCARD = Atom.create("_");
-	private static final Node CUT = Atom.create("!");
+	static final Node WILDCARD = Atom.create("_");
+	static final Node CUT = Atom.create("!");
 
 	private String variablePrefix = DEFAULTPREFIX;
 	private Map<Node, Reference> variables = new HashMap<Node, Reference>();
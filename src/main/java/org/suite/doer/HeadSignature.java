@@ -0,0 +1,135 @@
+package org.suite.doer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.parser.Operator;
+import org.suite.node.Atom;
+import org.suite.node.Int;
+import org.suite.node.Node;
+import org.suite.node.Str;
+import org.suite.node.Tree;
+import org.util.Util;
+
+/**
+ * Shape of the first few nodes of a rule head, for rejecting clauses before
+ * renaming them.
+ *
+ * Non-variable nodes of the head are taken breadth-first, up to a limit; each
+ * is kept as its path from the root, with its operator if it is a tree, or
+ * itself if it is a constant. A query matches if every node along the paths
+ * is either unbound, or of the same operator or constant as the head. The
+ * comparison follows the query in place and allocates nothing.
+ */
+public class HeadSignature {
+
+	private static final int maxNodes = 16;
+
+	// Turns from the root, the first in the lowest bit; set for right
+	private int paths[];
+	private int depths[];
+	private Operator operators[]; // Or null for constants
+	private Node constants[];
+
+	public HeadSignature(Node head) {
+		List<Node> queue = new ArrayList<Node>();
+		List<Integer> queuePaths = new ArrayList<Integer>();
+		List<Integer> queueDepths = new ArrayList<Integer>();
+		queue.add(head);
+		queuePaths.add(0);
+		queueDepths.add(0);
+
+		List<Integer> paths = new ArrayList<Integer>();
+		List<Integer> depths = new ArrayList<Integer>();
+		List<Node> nodes = new ArrayList<Node>();
+
+		for (int i = 0; i < queue.size() && nodes.size() < maxNodes; i++) {
+			Node node = queue.get(i).finalNode();
+			int path = queuePaths.get(i), depth = queueDepths.get(i);
+
+			if (!isVariable(node)) {
+				paths.add(path);
+				depths.add(depth);
+				nodes.add(node);
+
+				Tree tree = Tree.decompose(node);
+				if (tree != null) {
+					queue.add(tree.getLeft());
+					queuePaths.add(path);
+					queueDepths.add(depth + 1);
+					queue.add(tree.getRight());
+					queuePaths.add(path | 1 << depth);
+					queueDepths.add(depth + 1);
+				}
+			}
+		}
+
+		int size = nodes.size();
+		this.paths = new int[size];
+		this.depths = new int[size];
+		operators = new Operator[size];
+		constants = new Node[size];
+
+		for (int i = 0; i < size; i++) {
+			Node node = nodes.get(i);
+			Tree tree = Tree.decompose(node);
+			this.paths[i] = paths.get(i);
+			this.depths[i] = depths.get(i);
+
+			if (tree != null)
+				operators[i] = tree.getOperator();
+			else
+				constants[i] = node;
+		}
+	}
+
+	private static boolean isVariable(Node node) {
+		return node instanceof Atom && Template.isVariable((Atom) node)
+				|| node == Generalizer.WILDCARD || node == Generalizer.CUT
+				|| !(node instanceof Tree || node instanceof Atom
+						|| node instanceof Int || node instanceof Str);
+	}
+
+	/**
+	 * @return false if the query could not unify with the head.
+	 */
+	public boolean matches(Node query) {
+		nodes: for (int i = 0; i < depths.length; i++) {
+			Node node = query;
+			int path = paths[i];
+
+			for (int d = 0; d < depths[i]; d++) {
+				Tree tree = Tree.decompose(node);
+
+				// Unbound; otherwise checked by an ancestor
+				if (tree == null)
+					continue nodes;
+
+				node = (path & 1) == 0 ? tree.getLeft() : tree.getRight();
+				path >>= 1;
+			}
+
+			if (!matches(node.finalNode(), operators[i], constants[i]))
+				return false;
+		}
+
+		return true;
+	}
+
+	// Same as the binder for nodes that are not references
+	private static boolean matches(Node node, Operator operator, Node constant) {
+		if (node instanceof Tree)
+			return ((Tree) node).getOperator() == operator;
+		else if (node == constant)
+			return true;
+		else if (node instanceof Int && constant instanceof Int)
+			return ((Int) node).getNumber() == ((Int) constant).getNumber();
+		else if (node instanceof Str && constant instanceof Str)
+			return Util.equals(((Str) node).getValue(),
+					((Str) constant).getValue());
+		else
+			return !(node instanceof Atom || node instanceof Int
+					|| node instanceof Str);
+	}
+
+}
@@ -1,7 +1,7 @@
 package org.suite.doer;
 
+import java.util.Arrays;
 import java.util.List;
-import java.util.ListIterator;
 
 import org.suite.Binder;
 import org.suite.Journal;
@@ -25,18 +25,71 @@ public class Prover {
 	private static final Node OK = Atom.nil;
 	private static final Node FAIL = Atom.create("fail");
 
-	private Node remaining, alternative;
+	private static final int initialSize = 64;
 
 	private Journal journal = new Journal();
 	private Node trace = Atom.nil;
 
+	// Answers of tabled calls, shared with sub-provers of the same rules
+	private Tables tables;
+	private Node tableCall; // Expanded by its clauses, not looked up
+
+	// Goals to be proved after the current one, as cells linked towards the
+	// bottom of the arrays. The top cell is the current goal pointer.
+	private Node goals[] = new Node[initialSize];
+	private int goalNexts[] = new int[initialSize];
+	private int goal;
+
+	private ChoicePoint choicePoints[] = new ChoicePoint[initialSize];
+	private int nChoicePoints;
+	private int boundary; // Of the journal when the search started
+
+	private Cut cuts[] = new Cut[initialSize];
+
+	/**
+	 * Saved state to backtrack to. Either a disjunction alternative, or the
+	 * remaining clauses of an expanded query.
+	 */
+	private static class ChoicePoint {
+		private int journalPointer;
+		private int boundary; // References created since are not trailed
+		private int goal;
+		private int frontier; // Goal cells below are protected
+		private Node trace;
+		private Node query; // Or the alternative goal for disjunctions
+		private List<Rule> rules; // Snapshot when the call was expanded
+		private int ruleIndex; // The next clause to try
+	}
+
+	/**
+	 * Discards choice points made since the expansion that instantiated it.
+	 */
+	private final class Cut extends Station {
+		private int depth;
+
+		private Cut(int depth) {
+			this.depth = depth;
+		}
+
+		public boolean run() {
+			if (nChoicePoints > depth) {
+				nChoicePoints = depth;
+				moveBoundary();
+			}
+			return true;
+		}
+	}
+
 	public Prover(Prover prover) {
 		this(prover.ruleSet);
+		if (prover.ruleSearcher == prover.ruleSet)
+			tables = prover.tables;
 	}
 
 	public Prover(RuleSet ruleSet) {
 		this.ruleSearcher = ruleSet;
 		this.ruleSet = ruleSet;
+		tables = new Tables();
 	}
 
 	public Prover(RuleSearcher ruleSearcher, Prover prover) {
@@ -52,8 +105,18 @@ public class Prover {
 	 * @return true if success.
 	 */
 	public boolean prove(Node query) {
-		remaining = OK;
-		alternative = FAIL;
+		try {
+			return search(query);
+		} finally {
+			journal.resetChoicePoints(); // Binds hereafter are all trailed
+		}
+	}
+
+	private boolean search(Node query) {
+		goal = -1;
+		nChoicePoints = 0;
+		journal.markChoicePoint(); // Failing the search discards the rest
+		boundary = journal.getBoundary();
 
 		while (true) {
 			// LogUtil.info("PROVE", Formatter.dump(query));
@@ -64,23 +127,12 @@ public class Prover {
 
 				switch ((TermOp) tree.getOperator()) {
 				case OR____:
-					final int pit = journal.getPointInTime();
-					Node bt = new Station() {
-						public boolean run() {
-							journal.undoBinds(pit);
-							return true;
-						}
-					};
-
-					Tree alt0 = new Tree(TermOp.AND___, right, remaining);
-					alternative = alternative != FAIL ? new Tree(TermOp.OR____,
-							alt0, alternative) : alt0;
-					alternative = new Tree(TermOp.AND___, bt, alternative);
+					pushChoicePoint(right, null, 0, journal.markChoicePoint());
 					query = left;
 					continue;
 				case AND___:
 					if (right != OK)
-						remaining = new Tree(TermOp.AND___, right, remaining);
+						pushGoal(right);
 					query = left;
 					continue;
 				case EQUAL_:
@@ -95,17 +147,15 @@ public class Prover {
 
 			// Not handled above
 			if (query == OK)
-				if (remaining != OK) {
-					query = remaining;
-					remaining = OK;
+				if (goal >= 0) {
+					query = goals[goal];
+					goal = goalNexts[goal];
 				} else
 					return true;
 			else if (query == FAIL)
-				if (alternative != FAIL) {
-					query = alternative;
-					alternative = FAIL;
-					remaining = OK;
-				} else
+				if (nChoicePoints > 0)
+					query = backtrack();
+				else
 					return false;
 			else if (!isEnableTrace)
 				query = expand(query);
@@ -151,58 +201,157 @@ public class Prover {
 	private Node expandWithTrace(Node query) {
 		Node query1 = new Cloner().clone(query);
 		Tree trace1 = new Tree(TermOp.AND___, query1, trace);
-		Station push = new SetTrace(trace1), pop = new SetTrace(trace);
 
-		alternative = new Tree(TermOp.AND___, pop, alternative);
-		remaining = new Tree(TermOp.AND___, pop, remaining);
-		query = expand(query);
-		query = new Tree(TermOp.AND___, push, query);
-		return query;
+		pushGoal(new SetTrace(trace));
+		trace = trace1;
+		return expand(query);
 	}
 
 	/**
-	 * Expands an user predicate (with many clauses) to a chain of logic.
+	 * Expands an user predicate (with many clauses), trying its clauses in
+	 * order until a head matches. The other clauses are kept in a choice
+	 * point, to be tried on backtracking. Tabled calls try their answers as
+	 * clauses instead.
 	 * 
 	 * @param query
 	 *            The invocation pattern.
-	 * @param remaining
-	 *            The final goal to be appended.
-	 * @return The chained node.
+	 * @return The tail of the matching clause, or FAIL.
 	 */
 	private Node expand(Node query) {
-		final Node alt0 = alternative;
-		Node ret = FAIL;
+		List<Rule> rules;
 
-		List<Rule> rules = ruleSearcher.getRules(query);
-		ListIterator<Rule> iter = rules.listIterator(rules.size());
+		if (query == tableCall) {
+			tableCall = null;
+			rules = ruleSearcher.getRules(query);
+		} else if (ruleSet.isTabled(query))
+			rules = tables.getAnswers(query, this, ruleSet.getVersion());
+		else
+			rules = ruleSearcher.getRules(query);
 
-		while (iter.hasPrevious()) {
-			Rule rule = iter.previous();
+		return tryClauses(query, rules, 0);
+	}
 
-			Generalizer generalizer = new Generalizer();
-			generalizer.setCut(new Station() {
-				public boolean run() {
-					Prover.this.alternative = alt0;
-					return true;
-				}
-			});
-
-			Node head = generalizer.generalize(rule.getHead());
-			Node tail = generalizer.generalize(rule.getTail());
-
-			ret = new Tree(TermOp.OR____ //
-					, new Tree(TermOp.AND___ //
-							, new Tree(TermOp.EQUAL_ //
-									, query //
-									, head //
-							) //
-							, tail //
-					) //
-					, ret //
-			);
+	/**
+	 * Resolves a tabled call by its clauses, running the station on each
+	 * solution. Recursive calls are looked up in the tables.
+	 */
+	void proveClauses(Node call, Station station) {
+		Prover prover = new Prover(ruleSearcher, this);
+		prover.tables = tables;
+		prover.tableCall = call;
+		prover.prove(new Tree(TermOp.AND___, call, station));
+		prover.undoAllBinds();
+	}
+
+	private Node backtrack() {
+		int depth = nChoicePoints - 1;
+		ChoicePoint cp = choicePoints[depth];
+		journal.undoBinds(cp.journalPointer);
+		goal = cp.goal;
+		trace = cp.trace;
+		nChoicePoints = depth;
+		moveBoundary();
+
+		if (cp.rules != null)
+			return tryClauses(cp.query, cp.rules, cp.ruleIndex);
+		else
+			return cp.query;
+	}
+
+	/**
+	 * Renames clauses one at a time, from the specified one, skipping those
+	 * whose head signatures do not match. The tail is only renamed after the
+	 * head matches, and a choice point is only left when there are clauses
+	 * after the matching one. The rules are a snapshot, so that clauses
+	 * asserted or retracted meanwhile do not change the clauses to try.
+	 */
+	private Node tryClauses(Node query, List<Rule> rules, int i) {
+		int size = rules.size();
+		int pit = journal.markChoicePoint(); // Head binds could be undone
+		Cut cut = getCut(nChoicePoints);
+
+		while (i < size) {
+			Rule rule = rules.get(i++);
+			if (!rule.getSignature().matches(query))
+				continue;
+
+			Template template = rule.getTemplate();
+			Node slots[] = template.createSlots(cut);
+
+			if (bind(query, template.instantiate(0, slots))) {
+				if (i < size)
+					pushChoicePoint(query, rules, i, pit);
+				else
+					moveBoundary(); // No choice point is left
+				return template.instantiate(1, slots);
+			} else
+				journal.undoBinds(pit);
+		}
+
+		moveBoundary();
+		return FAIL;
+	}
+
+	private void pushGoal(Node node) {
+		int cell = getFrontier();
+
+		if (cell == goals.length) {
+			goals = Arrays.copyOf(goals, cell * 2);
+			goalNexts = Arrays.copyOf(goalNexts, cell * 2);
 		}
 
-		return ret;
+		goals[cell] = node;
+		goalNexts[cell] = goal;
+		goal = cell;
+	}
+
+	private void pushChoicePoint(Node query, List<Rule> rules, int ruleIndex,
+			int journalPointer) {
+		if (nChoicePoints == choicePoints.length)
+			choicePoints = Arrays.copyOf(choicePoints, nChoicePoints * 2);
+
+		ChoicePoint cp = choicePoints[nChoicePoints];
+		if (cp == null)
+			choicePoints[nChoicePoints] = cp = new ChoicePoint();
+
+		cp.journalPointer = journalPointer;
+		cp.boundary = journal.getBoundary();
+		cp.goal = goal;
+		cp.frontier = getFrontier();
+		cp.trace = trace;
+		cp.query = query;
+		cp.rules = rules;
+		cp.ruleIndex = ruleIndex;
+		nChoicePoints++;
+	}
+
+	// References created after the latest choice point kept, or after the
+	// search started, are not trailed
+	private void moveBoundary() {
+		if (nChoicePoints > 0)
+			journal.setBoundary(choicePoints[nChoicePoints - 1].boundary);
+		else
+			journal.setBoundary(boundary);
+	}
+
+	// Cells above the current goal that are not kept by any choice point are
+	// free to be reused
+	private int getFrontier() {
+		int frontier = goal + 1;
+		if (nChoicePoints > 0)
+			frontier = Math.max(frontier,
+					choicePoints[nChoicePoints - 1].frontier);
+		return frontier;
+	}
+
+	private Cut getCut(int depth) {
+		if (depth >= cuts.length)
+			cuts = Arrays.copyOf(cuts, Math.max(depth + 1, cuts.length * 2));
+
+		Cut cut = cuts[depth];
+		if (cut == null)
+			cuts[depth] = cut = new Cut(depth);
+		return cut;
 	}
 
 	/**
@@ -235,6 +384,13 @@ public class Prover {
 		return journal;
 	}
 
+	/**
+	 * Answers of tabled calls proved so far.
+	 */
+	public Tables getTables() {
+		return tables;
+	}
+
 	/**
 	 * Gets stack dump when trace is enabled.
 	 */
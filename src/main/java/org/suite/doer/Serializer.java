@@ -0,0 +1,239 @@
+package org.suite.doer;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.suite.doer.TermParser.TermOp;
+import org.suite.node.Atom;
+import org.suite.node.Int;
+import org.suite.node.Node;
+import org.suite.node.Reference;
+import org.suite.node.Str;
+import org.suite.node.Tree;
+import org.util.IoUtil;
+
+/**
+ * Converts nodes to and from a compact binary format. Atoms are written once
+ * into a table in front and referred by index afterwards; trees are written
+ * in prefix order with operator ordinals; integers and indices are
+ * variable-length. Unbound references are numbered, and restored as fresh
+ * references sharing the same structure.
+ *
+ * Reading works directly on (possibly memory-mapped) buffers; atom names are
+ * only decoded when first referred.
+ */
+public class Serializer {
+
+	private static final int magic = 0x53554954; // "SUIT"
+
+	private static final int REF__ = 0;
+	private static final int ATOM_ = 1;
+	private static final int INT__ = 2;
+	private static final int STR__ = 3;
+	private static final int TREE_ = 4; // Plus operator ordinal
+
+	private static final TermOp termOps[] = TermOp.values();
+
+	private Map<Atom, Integer> atoms = new LinkedHashMap<Atom, Integer>();
+	private Map<Reference, Integer> references = new HashMap<Reference, Integer>();
+	private ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+	public byte[] serialize(Node node) {
+		collectAtoms(node);
+
+		writeInt(magic);
+		writeVarInt(atoms.size());
+		for (Atom atom : atoms.keySet())
+			writeString(atom.getName());
+
+		write(node);
+		return out.toByteArray();
+	}
+
+	public static Node deserialize(byte bytes[]) {
+		return deserialize(ByteBuffer.wrap(bytes));
+	}
+
+	/**
+	 * Reads a node from the current position of the buffer, which is then
+	 * moved past the node.
+	 */
+	public static Node deserialize(ByteBuffer buffer) {
+		return new Reader(buffer).read();
+	}
+
+	/**
+	 * @return true if the buffer, from its current position, contains a
+	 *         serialized node.
+	 */
+	public static boolean isSerialized(ByteBuffer buffer) {
+		return buffer.remaining() >= 4
+				&& buffer.getInt(buffer.position()) == magic;
+	}
+
+	private void collectAtoms(Node node) {
+		Tree tree;
+
+		while ((tree = Tree.decompose(node)) != null) {
+			collectAtoms(tree.getLeft());
+			node = tree.getRight();
+		}
+
+		node = node.finalNode();
+		if (node instanceof Atom && !atoms.containsKey(node))
+			atoms.put((Atom) node, atoms.size());
+	}
+
+	private void write(Node node) {
+		Tree tree;
+
+		// Iterates along the right, since lists could be very long
+		while ((tree = Tree.decompose(node)) != null) {
+			out.write(TREE_ + ((TermOp) tree.getOperator()).ordinal());
+			write(tree.getLeft());
+			node = tree.getRight();
+		}
+
+		node = node.finalNode();
+
+		if (node instanceof Atom) {
+			out.write(ATOM_);
+			writeVarInt(atoms.get(node));
+		} else if (node instanceof Int) {
+			int i = ((Int) node).getNumber();
+			out.write(INT__);
+			writeVarInt(i << 1 ^ i >> 31);
+		} else if (node instanceof Str) {
+			out.write(STR__);
+			writeString(((Str) node).getValue());
+		} else if (node instanceof Reference) {
+			Integer id = references.get(node);
+			if (id == null)
+				references.put((Reference) node, id = references.size());
+			out.write(REF__);
+			writeVarInt(id);
+		} else
+			throw new RuntimeException("Cannot serialize " + node.getClass());
+	}
+
+	private void writeString(String s) {
+		byte bytes[] = s.getBytes(IoUtil.charset);
+		writeVarInt(bytes.length);
+		out.write(bytes, 0, bytes.length);
+	}
+
+	private void writeInt(int i) {
+		for (int shift = 24; shift >= 0; shift -= 8)
+			out.write(i >>> shift);
+	}
+
+	private void writeVarInt(int i) {
+		while ((i & ~0x7F) != 0) {
+			out.write(i & 0x7F | 0x80);
+			i >>>= 7;
+		}
+		out.write(i);
+	}
+
+	private static class Reader {
+		private ByteBuffer buffer;
+		private int atomPositions[];
+		private Atom atoms[];
+		private List<Reference> references = new ArrayList<Reference>();
+
+		private Reader(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		private Node read() {
+			if (buffer.getInt() != magic)
+				throw new RuntimeException("Not a serialized node");
+
+			int nAtoms = readVarInt();
+			atomPositions = new int[nAtoms];
+			atoms = new Atom[nAtoms];
+
+			for (int i = 0; i < nAtoms; i++) {
+				atomPositions[i] = buffer.position();
+				int length = readVarInt();
+				buffer.position(buffer.position() + length);
+			}
+
+			return readNode();
+		}
+
+		private Atom readAtom() {
+			int index = readVarInt();
+			Atom atom = atoms[index];
+
+			if (atom == null) {
+				int position = buffer.position();
+				buffer.position(atomPositions[index]);
+				atoms[index] = atom = Atom.create(readString());
+				buffer.position(position);
+			}
+
+			return atom;
+		}
+
+		private Node readNode() {
+			List<TermOp> operators = new ArrayList<TermOp>();
+			List<Node> lefts = new ArrayList<Node>();
+			int tag;
+
+			while ((tag = buffer.get() & 0xFF) >= TREE_) {
+				operators.add(termOps[tag - TREE_]);
+				lefts.add(readNode());
+			}
+
+			Node node;
+
+			switch (tag) {
+			case ATOM_:
+				node = readAtom();
+				break;
+			case INT__:
+				int i = readVarInt();
+				node = Int.create(i >>> 1 ^ -(i & 1));
+				break;
+			case STR__:
+				node = new Str(readString());
+				break;
+			default:
+				int id = readVarInt();
+				while (references.size() <= id)
+					references.add(new Reference());
+				node = references.get(id);
+			}
+
+			for (int i = operators.size() - 1; i >= 0; i--)
+				node = new Tree(operators.get(i), lefts.get(i), node);
+
+			return node;
+		}
+
+		private String readString() {
+			byte bytes[] = new byte[readVarInt()];
+			buffer.get(bytes);
+			return new String(bytes, IoUtil.charset);
+		}
+
+		private int readVarInt() {
+			int i = 0, shift = 0, b;
+
+			do {
+				b = buffer.get();
+				i |= (b & 0x7F) << shift;
+				shift += 7;
+			} while ((b & 0x80) != 0);
+
+			return i;
+		}
+	}
+
+}
@@ -0,0 +1,198 @@
+package org.suite.doer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.suite.kb.RuleSet.Rule;
+import org.suite.node.Atom;
+import org.suite.node.Node;
+import org.suite.node.Reference;
+import org.suite.node.Tree;
+
+/**
+ * Answers of tabled calls, kept per variant of the calls, so that repeated
+ * calls are looked up instead of resolved again.
+ *
+ * Calls and answers are keyed in canonical form, with their unbound variables
+ * replaced by numbered variable atoms; answers are returned as facts of the
+ * call, in the order found.
+ *
+ * A call is evaluated by resolving its clauses exhaustively. Recursive calls
+ * of a variant being evaluated consume the answers found so far. The oldest
+ * call in such a loop is the leader; it resolves its clauses again until no
+ * more answers are found anywhere, then it completes itself together with the
+ * calls evaluated under it. Incomplete calls that are not being evaluated are
+ * evaluated again when called.
+ *
+ * Each table, and each answer, counts one towards the capacity; the least
+ * recently used complete tables are evicted beyond that. Complete tables are
+ * also dropped when the rules change.
+ *
+ * Tables are not thread-safe; provers searching in other threads should
+ * have their own.
+ */
+public class Tables {
+
+	private int capacity = 65536;
+	private int size;
+	private int version;
+
+	private Map<Node, Table> tables = new LinkedHashMap<Node, Table>(16,
+			0.75f, true);
+
+	// Tables being evaluated, and those waiting for their leaders
+	private List<Table> stack = new ArrayList<Table>();
+	private List<Table> incompletes = new ArrayList<Table>();
+
+	private int nAnswersAdded;
+
+	private static class Table {
+		private List<Rule> answers = new ArrayList<Rule>();
+		private Set<Node> answerSet = new HashSet<Node>();
+		private boolean isComplete;
+		private int depth = -1; // Position in the stack if being evaluated
+		private int leader; // The lowest position it depends on
+	}
+
+	/**
+	 * @return answers of the call as facts. The list is a snapshot if the
+	 *         table is not yet complete.
+	 */
+	public List<Rule> getAnswers(Node call, Prover prover, int version) {
+		if (this.version != version) {
+			removeCompletes(null);
+			this.version = version;
+		}
+
+		Node key = canonicalize(call);
+		Table table = tables.get(key);
+
+		if (table == null) {
+			tables.put(key, table = new Table());
+			size++;
+		}
+
+		if (!table.isComplete) {
+			if (table.depth >= 0) {
+				Table top = stack.get(stack.size() - 1);
+				top.leader = Math.min(top.leader, table.depth);
+			} else
+				evaluate(table, call, prover);
+
+			if (size > capacity)
+				removeCompletes(table);
+		}
+
+		return table.isComplete ? table.answers : new ArrayList<Rule>(
+				table.answers);
+	}
+
+	private void evaluate(final Table table, Node call, Prover prover) {
+		final Node call1 = new Cloner().clone(call);
+		int depth = stack.size(), mark = incompletes.size(), n;
+
+		Station collect = new Station() {
+			public boolean run() {
+				Node answer = canonicalize(call1);
+
+				if (table.answerSet.add(answer)) {
+					table.answers.add(new Rule(answer, Atom.nil));
+					nAnswersAdded++;
+					size++;
+				}
+
+				return false;
+			}
+		};
+
+		table.depth = depth;
+		stack.add(table);
+
+		try {
+			do {
+				table.leader = depth;
+				n = nAnswersAdded;
+				prover.proveClauses(call1, collect);
+			} while (table.leader == depth && n != nAnswersAdded);
+		} finally {
+			stack.remove(depth);
+			table.depth = -1;
+		}
+
+		if (table.leader == depth) {
+			List<Table> members = incompletes.subList(mark, incompletes.size());
+			for (Table member : members)
+				member.isComplete = true;
+			members.clear();
+			table.isComplete = true;
+		} else {
+			Table parent = stack.get(depth - 1);
+			parent.leader = Math.min(parent.leader, table.leader);
+			incompletes.add(table);
+		}
+	}
+
+	// Evicts the least recently used complete tables, or all if rules changed
+	private void removeCompletes(Table except) {
+		Iterator<Table> iter = tables.values().iterator();
+
+		while (iter.hasNext() && (except == null || size > capacity)) {
+			Table table = iter.next();
+
+			if (table.isComplete && table != except) {
+				size -= 1 + table.answers.size();
+				iter.remove();
+			}
+		}
+	}
+
+	private static Node canonicalize(Node node) {
+		return canonicalize(node, new HashMap<Reference, Node>());
+	}
+
+	private static Node canonicalize(Node node, Map<Reference, Node> variables) {
+		node = node.finalNode();
+
+		if (node instanceof Reference) {
+			Node variable = variables.get(node);
+			if (variable == null)
+				variables.put((Reference) node, variable = Atom
+						.create(Generalizer.DEFAULTPREFIX + variables.size()));
+			return variable;
+		} else if (node instanceof Tree) {
+			Tree tree = (Tree) node;
+			return new Tree(tree.getOperator() //
+					, canonicalize(tree.getLeft(), variables) //
+					, canonicalize(tree.getRight(), variables));
+		} else
+			return node;
+	}
+
+	public void clear() {
+		tables.clear();
+		incompletes.clear();
+		size = 0;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public void setCapacity(int capacity) {
+		this.capacity = capacity;
+	}
+
+	/**
+	 * @return number of tables and answers kept.
+	 */
+	public int getSize() {
+		return size;
+	}
+
+}
@@ -0,0 +1,114 @@
+package org.suite.doer;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.suite.node.Atom;
+import org.suite.node.Node;
+import org.suite.node.Reference;
+import org.suite.node.Tree;
+
+/**
+ * Nodes precompiled for generalization. Variables are replaced by numbered
+ * slots once, so that each instantiation only copies the trees containing
+ * them, filling the slots from an array, without looking up any variable
+ * names.
+ *
+ * Slot 0 is the cut symbol, substituted by the node supplied; variables are
+ * shared among all nodes of the template. Ground subtrees are shared by all
+ * instances.
+ */
+public class Template {
+
+	private static final int cutSlot = 0;
+
+	private Node nodes[];
+	private int nSlots = 1;
+
+	private static class Slot extends Node {
+		private int index;
+
+		private Slot(int index) {
+			this.index = index;
+		}
+	}
+
+	// A tree containing slots, which is copied on instantiation
+	private static class SlotTree extends Tree {
+		private SlotTree(Tree tree, Node left, Node right) {
+			super(tree.getOperator(), left, right);
+		}
+	}
+
+	public Template(Node... nodes) {
+		Map<Node, Slot> slots = new HashMap<Node, Slot>();
+		slots.put(Generalizer.CUT, new Slot(cutSlot));
+
+		this.nodes = new Node[nodes.length];
+		for (int i = 0; i < nodes.length; i++)
+			this.nodes[i] = compile(nodes[i], slots);
+	}
+
+	private Node compile(Node node, Map<Node, Slot> slots) {
+		node = node.finalNode();
+
+		if (node == Generalizer.WILDCARD)
+			return new Slot(nSlots++);
+		else if (node instanceof Atom && isVariable((Atom) node)
+				|| node == Generalizer.CUT) {
+			Slot slot = slots.get(node);
+			if (slot == null)
+				slots.put(node, slot = new Slot(nSlots++));
+			return slot;
+		} else if (node instanceof Tree) {
+			Tree tree = (Tree) node;
+			Node left = compile(tree.getLeft(), slots);
+			Node right = compile(tree.getRight(), slots);
+			if (left instanceof Slot || left instanceof SlotTree
+					|| right instanceof Slot || right instanceof SlotTree)
+				return new SlotTree(tree, left, right);
+		}
+
+		return node;
+	}
+
+	static boolean isVariable(Atom atom) {
+		return atom.getName().startsWith(Generalizer.DEFAULTPREFIX);
+	}
+
+	/**
+	 * @return a new array of slots for an instance, with the specified cut
+	 *         node, or null to keep the cut symbol. The other slots are filled
+	 *         on instantiation.
+	 */
+	public Node[] createSlots(Node cut) {
+		Node slots[] = new Node[nSlots];
+		slots[cutSlot] = cut != null ? cut : Generalizer.CUT;
+		return slots;
+	}
+
+	/**
+	 * Instantiates the n-th node with the slots. Nodes instantiated with the
+	 * same slots share their variables.
+	 */
+	public Node instantiate(int n, Node slots[]) {
+		return instantiate(nodes[n], slots);
+	}
+
+	private Node instantiate(Node node, Node slots[]) {
+		if (node instanceof Slot) {
+			int index = ((Slot) node).index;
+			Node node1 = slots[index];
+			if (node1 == null)
+				slots[index] = node1 = new Reference();
+			return node1;
+		} else if (node instanceof SlotTree) {
+			Tree tree = (Tree) node;
+			return new Tree(tree.getOperator() //
+					, instantiate(tree.getLeft(), slots) //
+					, instantiate(tree.getRight(), slots));
+		} else
+			return node;
+	}
+
+}
@@ -0,0 +1,129 @@
+package org.suite.kb;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.suite.kb.RuleSet.Rule;
+import org.suite.node.Node;
+import org.suite.node.Tree;
+
+/**
+ * Indexes rules of the same prototype by their arguments, so that a query
+ * only gets the rules that could unify with its bound arguments.
+ *
+ * Arguments are the elements along the right of the head, e.g. a and b in
+ * "edge a b"; they are keyed by their own prototypes. An argument position
+ * is indexed when the first query binding it comes; the most selective
+ * indexed position is used for each query. Rules with a variable argument
+ * are candidates of every key. Candidates are always kept in rule order.
+ *
+ * Lists handed out never change, as choice points may still be iterating
+ * them; adding a rule after that starts over with copies.
+ */
+public class ArgumentIndex {
+
+	private static final int maxPositions = 8;
+
+	private List<Rule> rules;
+	private Position positions[] = new Position[maxPositions];
+	private boolean isShared;
+
+	private static class Position {
+		private int n;
+		private Map<Prototype, List<Rule>> rulesByKey = new HashMap<Prototype, List<Rule>>();
+		private List<Rule> unkeyedRules = new ArrayList<Rule>();
+
+		private Position(int n) {
+			this.n = n;
+		}
+
+		private void add(Rule rule) {
+			Prototype key = getKey(rule.getHead(), n);
+
+			if (key != null) {
+				List<Rule> rules = rulesByKey.get(key);
+				if (rules == null)
+					rulesByKey.put(key, rules = new ArrayList<Rule>(
+							unkeyedRules));
+				rules.add(rule);
+			} else {
+				unkeyedRules.add(rule);
+				for (List<Rule> rules : rulesByKey.values())
+					rules.add(rule);
+			}
+		}
+
+		private List<Rule> get(Prototype key) {
+			List<Rule> rules = rulesByKey.get(key);
+			return rules != null ? rules : unkeyedRules;
+		}
+	}
+
+	public ArgumentIndex(List<Rule> rules) {
+		this.rules = new ArrayList<Rule>(rules);
+	}
+
+	public synchronized void add(Rule rule) {
+		if (isShared) {
+			rules = new ArrayList<Rule>(rules);
+			positions = new Position[maxPositions];
+			isShared = false;
+		}
+
+		rules.add(rule);
+
+		for (Position position : positions)
+			if (position != null)
+				position.add(rule);
+	}
+
+	/**
+	 * @return rules that could unify with the query, in rule order.
+	 */
+	public synchronized List<Rule> getRules(Node head) {
+		List<Rule> candidates = rules;
+
+		for (int n = 1; n < maxPositions; n++) {
+			Prototype key = getKey(head, n);
+
+			if (key != null) {
+				Position position = positions[n];
+
+				if (position == null) {
+					positions[n] = position = new Position(n);
+					for (Rule rule : rules)
+						position.add(rule);
+				}
+
+				List<Rule> rules = position.get(key);
+				if (rules.size() < candidates.size())
+					candidates = rules;
+			}
+		}
+
+		isShared = true;
+		return candidates;
+	}
+
+	// Variables, and arguments beyond the end, match anything
+	private static Prototype getKey(Node head, int n) {
+		Node node = getArgument(head, n);
+		return node != null ? Prototype.get(node.finalNode()) : null;
+	}
+
+	// The prototype is at position 0; the last element is not decomposed
+	private static Node getArgument(Node node, int n) {
+		Tree tree;
+
+		for (int i = 0; i < n; i++)
+			if ((tree = Tree.decompose(node)) != null)
+				node = tree.getRight();
+			else
+				return null;
+
+		return (tree = Tree.decompose(node)) != null ? tree.getLeft() : node;
+	}
+
+}
@@ -1,13 +1,20 @@
 package org.suite.kb;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.suite.doer.Cloner;
 import org.suite.doer.Comparer;
 import org.suite.doer.Generalizer;
+import org.suite.doer.HeadSignature;
 import org.suite.doer.Prover;
+import org.suite.doer.Template;
 import org.suite.doer.TermParser.TermOp;
 import org.suite.node.Atom;
 import org.suite.node.Node;
@@ -20,6 +27,8 @@ public class RuleSet implements RuleSearcher {
 
 	public static class Rule {
 		private Node head, tail;
+		private Template template;
+		private HeadSignature signature;
 
 		public Rule(Node head, Node tail) {
 			this.head = head;
@@ -33,6 +42,26 @@ public class RuleSet implements RuleSearcher {
 		public Node getTail() {
 			return tail;
 		}
+
+		/**
+		 * @return the head and tail precompiled for generalization; compiled
+		 *         when the rule is added to a rule set, or on first use.
+		 */
+		public Template getTemplate() {
+			if (template == null)
+				template = new Template(head, tail);
+			return template;
+		}
+
+		/**
+		 * @return the shape of the head, for rejecting queries before
+		 *         renaming; computed along with the template.
+		 */
+		public HeadSignature getSignature() {
+			if (signature == null)
+				signature = new HeadSignature(head);
+			return signature;
+		}
 	}
 
 	private List<Rule> rules = new ArrayList<Rule>();
@@ -41,6 +70,20 @@ public class RuleSet implements RuleSearcher {
 	// Have to use a multi-map implementation that allow null keys.
 	private ListMultimap<Prototype, Rule> index = ArrayListMultimap.create();
 
+	// Prototypes with many rules are further indexed by arguments, built on
+	// their first queries
+	private static final int argumentIndexThreshold = 16;
+	private Map<Prototype, ArgumentIndex> argumentIndices = new HashMap<Prototype, ArgumentIndex>();
+
+	// Lists handed out to searches, which must not change under the choice
+	// points iterating them; dropped on changes, and copied again on the next
+	// search
+	private Map<Prototype, List<Rule>> snapshots = new HashMap<Prototype, List<Rule>>();
+	private List<Rule> rulesSnapshot;
+
+	private Set<Prototype> tabledPrototypes = new HashSet<Prototype>();
+	private int version;
+
 	public boolean importFrom(Node node) {
 		Prover prover = new Prover(this);
 		boolean result = true;
@@ -65,6 +108,10 @@ public class RuleSet implements RuleSearcher {
 	public void clear() {
 		rules.clear();
 		index.clear();
+		argumentIndices.clear();
+		tabledPrototypes.clear();
+		dropSnapshots(null);
+		version++;
 	}
 
 	public void addRule(Node node) {
@@ -73,8 +120,17 @@ public class RuleSet implements RuleSearcher {
 
 	public void addRule(Rule rule) {
 		rule = new Cloner().clone(rule);
+		rule.getTemplate();
+		rule.getSignature();
+		Prototype proto = Prototype.get(rule);
 		rules.add(rule);
-		index.get(Prototype.get(rule)).add(rule);
+		index.get(proto).add(rule);
+
+		ArgumentIndex argumentIndex = argumentIndices.get(proto);
+		if (argumentIndex != null)
+			argumentIndex.add(rule);
+		dropSnapshots(proto);
+		version++;
 	}
 
 	public void addRuleToFront(Node node) {
@@ -83,8 +139,14 @@ public class RuleSet implements RuleSearcher {
 
 	public void addRuleToFront(Rule rule) {
 		rule = new Cloner().clone(rule);
+		rule.getTemplate();
+		rule.getSignature();
+		Prototype proto = Prototype.get(rule);
 		rules.add(0, rule);
-		index.get(Prototype.get(rule)).add(0, rule);
+		index.get(proto).add(0, rule);
+		argumentIndices.remove(proto);
+		dropSnapshots(proto);
+		version++;
 	}
 
 	public void removeRule(Node node) {
@@ -92,8 +154,45 @@ public class RuleSet implements RuleSearcher {
 	}
 
 	public void removeRule(Rule rule) {
+		Prototype proto = Prototype.get(rule);
 		removeRule(rules, rule);
-		removeRule(index.get(Prototype.get(rule)), rule);
+		removeRule(index.get(proto), rule);
+		argumentIndices.remove(proto);
+		dropSnapshots(proto);
+		version++;
+	}
+
+	// Drops the snapshots of the prototype, or all if it is null
+	private void dropSnapshots(Prototype proto) {
+		synchronized (snapshots) {
+			if (proto != null)
+				snapshots.remove(proto);
+			else
+				snapshots.clear();
+			rulesSnapshot = null;
+		}
+	}
+
+	/**
+	 * Makes calls of the same prototype as the specified call pattern tabled,
+	 * i.e. their answers are kept by provers and looked up on later calls.
+	 */
+	public void addTable(Node node) {
+		tabledPrototypes.add(Prototype.get(node));
+		version++;
+	}
+
+	public boolean isTabled(Node query) {
+		return !tabledPrototypes.isEmpty()
+				&& tabledPrototypes.contains(Prototype.get(query));
+	}
+
+	/**
+	 * @return a number that changes whenever the rules are changed, for
+	 *         discarding answers derived from them.
+	 */
+	public int getVersion() {
+		return version;
 	}
 
 	private static void removeRule(List<Rule> rules, Rule rule) {
@@ -130,22 +229,64 @@ public class RuleSet implements RuleSearcher {
 	 */
 	@Override
 	public List<Rule> getRules(Node head) {
-		return getRules(Prototype.get(head));
+		Prototype proto = Prototype.get(head);
+		List<Rule> rules = getRules(proto);
+
+		if (proto != null && rules.size() >= argumentIndexThreshold
+				&& !index.containsKey(null))
+			return getArgumentIndex(proto, rules).getRules(head);
+		else
+			return rules;
+	}
+
+	private ArgumentIndex getArgumentIndex(Prototype proto, List<Rule> rules) {
+		synchronized (argumentIndices) {
+			ArgumentIndex argumentIndex = argumentIndices.get(proto);
+			if (argumentIndex == null)
+				argumentIndices.put(proto, argumentIndex = new ArgumentIndex(
+						rules));
+			return argumentIndex;
+		}
 	}
 
+	/**
+	 * @return rules of the prototype. The list does not change with later
+	 *         changes to the rule set.
+	 */
 	public List<Rule> getRules(Prototype proto) {
 
 		// If the query is "un-prototype-able," or the rule set contains
 		// "un-prototype-able" entries, full traversal is required
 		if (proto != null && !index.containsKey(null))
-			return index.get(proto);
+			synchronized (snapshots) {
+				List<Rule> snapshot = snapshots.get(proto);
+				if (snapshot == null) {
+					List<Rule> rules = index.get(proto);
+					if (rules.isEmpty())
+						return Collections.emptyList();
+					snapshots.put(proto, snapshot = snapshot(rules));
+				}
+				return snapshot;
+			}
 		else
 			return getRules();
 	}
 
+	/**
+	 * @return all rules. The list does not change with later changes to the
+	 *         rule set.
+	 */
 	@Override
 	public List<Rule> getRules() {
-		return rules;
+		synchronized (snapshots) {
+			if (rulesSnapshot == null)
+				rulesSnapshot = snapshot(rules);
+			return rulesSnapshot;
+		}
+	}
+
+	private static List<Rule> snapshot(List<Rule> rules) {
+		return Collections.unmodifiableList(new ArrayList<Rule>(rules));
 	}
 
 }
@@ -0,0 +1,108 @@
+package org.suite.kb;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.List;
+
+import org.suite.doer.Serializer;
+import org.suite.doer.TermParser.TermOp;
+import org.suite.kb.RuleSet.Rule;
+import org.suite.node.Atom;
+import org.suite.node.Node;
+import org.suite.node.Tree;
+
+/**
+ * A loaded rule set saved into a file, so that it can be restored without
+ * importing the sources again.
+ *
+ * The file contains a stamp supplied by the saver, followed by the rules in
+ * serialized form. The stamp is read on opening, so that the caller could
+ * check if the image is still up-to-date before loading the rules. Atoms are
+ * interned once in the serialized form; the prototype index is rebuilt as
+ * rules are added.
+ */
+public class RuleSetImage {
+
+	private Node stamp;
+	private ByteBuffer buffer;
+
+	private RuleSetImage(Node stamp, ByteBuffer buffer) {
+		this.stamp = stamp;
+		this.buffer = buffer;
+	}
+
+	/**
+	 * @return the image, or null if the file does not exist or is not an
+	 *         image.
+	 */
+	public static RuleSetImage open(File file) throws IOException {
+		if (file.exists()) {
+			FileInputStream is = new FileInputStream(file);
+			ByteBuffer buffer;
+
+			try {
+				FileChannel channel = is.getChannel();
+				buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+			} finally {
+				is.close();
+			}
+
+			if (Serializer.isSerialized(buffer)) {
+				Node stamp = Serializer.deserialize(buffer);
+				if (Serializer.isSerialized(buffer))
+					return new RuleSetImage(stamp, buffer);
+			}
+		}
+
+		return null;
+	}
+
+	public static void save(File file, Node stamp, RuleSet rs)
+			throws IOException {
+		List<Rule> rules = rs.getRules();
+		Node node = Atom.nil;
+
+		for (int i = rules.size() - 1; i >= 0; i--)
+			node = new Tree(TermOp.NEXT__, RuleSet.formClause(rules.get(i)),
+					node);
+
+		File temp = new File(file.getPath() + ".tmp");
+		OutputStream os = new FileOutputStream(temp);
+
+		try {
+			os.write(new Serializer().serialize(stamp));
+			os.write(new Serializer().serialize(node));
+		} finally {
+			os.close();
+		}
+
+		if (!temp.renameTo(file)) {
+			file.delete();
+			temp.renameTo(file);
+		}
+	}
+
+	public RuleSet load() {
+		RuleSet rs = new RuleSet();
+		Node node = Serializer.deserialize(buffer.duplicate());
+		Tree tree;
+
+		while ((tree = Tree.decompose(node, TermOp.NEXT__)) != null) {
+			rs.addRule(tree.getLeft());
+			node = tree.getRight();
+		}
+
+		return rs;
+	}
+
+	public Node getStamp() {
+		return stamp;
+	}
+
+}
@@ -0,0 +1,45 @@
+package org.suite.node;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Binary content, such as a memory-mapped file of serialized nodes.
+ */
+public class Bytes extends Node {
+
+	private ByteBuffer buffer;
+
+	public Bytes(byte bytes[]) {
+		this(ByteBuffer.wrap(bytes));
+	}
+
+	public Bytes(ByteBuffer buffer) {
+		this.buffer = buffer;
+	}
+
+	@Override
+	public int hashCode() {
+		return buffer.hashCode();
+	}
+
+	@Override
+	public boolean equals(Object object) {
+		if (object instanceof Node) {
+			Node node = ((Node) object).finalNode();
+			if (node instanceof Bytes) {
+				Bytes bytes = (Bytes) node;
+				return buffer.equals(bytes.buffer);
+			} else
+				return false;
+		} else
+			return false;
+	}
+
+	/**
+	 * @return a view of the content with its own position.
+	 */
+	public ByteBuffer getBuffer() {
+		return buffer.duplicate();
+	}
+
+}
@@ -22,6 +22,14 @@ public class Reference extends Node {
 		node = this;
 	}
 
+	/**
+	 * @return the node bound directly, which could be another reference, or
+	 *         this if unbound.
+	 */
+	public Node getNode() {
+		return node;
+	}
+
 	@Override
 	public Node finalNode() {
 		return node != this ? node.finalNode() : node;
@@ -31,4 +39,19 @@ public class Reference extends Node {
 		return id;
 	}
 
+	/**
+	 * @return the identifier of the next reference to be created.
+	 */
+	public static int getNextId() {
+		return counter.get();
+	}
+
+	/**
+	 * Sets the identifier of the next reference to be created. Identifiers
+	 * wrap around after the largest integer.
+	 */
+	public static void setNextId(int nextId) {
+		counter.set(nextId);
+	}
+
 }
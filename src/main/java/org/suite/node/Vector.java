@@ -1,5 +1,7 @@
 package org.suite.node;
 
+import java.util.Arrays;
+
 import org.util.Util;
 
 /**
@@ -11,10 +13,6 @@ public class Vector extends Node {
 		private Node nodes[];
 		private int startUsed, endUsed;
 
-		private Data() {
-			this(16);
-		}
-
 		private Data(int len) {
 			this(len, len * 3 / 4);
 		}
@@ -32,8 +30,8 @@ public class Vector extends Node {
 
 		private void insertAfter(Node n[], int s, int e) {
 			int l1 = e - s;
-			endUsed += l1;
 			System.arraycopy(n, s, nodes, endUsed, l1);
+			endUsed += l1;
 		}
 	}
 
@@ -47,8 +45,7 @@ public class Vector extends Node {
 	}
 
 	public Vector(Node nodes[]) {
-		this(new Data());
-		data.insertBefore(nodes, 0, nodes.length);
+		this(createData(nodes));
 	}
 
 	private Vector(Data data) {
@@ -63,6 +60,12 @@ public class Vector extends Node {
 		this.end = end;
 	}
 
+	private static Data createData(Node nodes[]) {
+		Data data = new Data(nodes.length * 4 / 3 + 16);
+		data.insertBefore(nodes, 0, nodes.length);
+		return data;
+	}
+
 	public static Vector concat(Vector u, Vector v) {
 		int ulen = u.length(), vlen = v.length();
 
@@ -73,7 +76,8 @@ public class Vector extends Node {
 			v.data.insertBefore(u.data.nodes, u.start, u.end);
 			return new Vector(v.data, v.start - ulen, v.end);
 		} else {
-			Data data = new Data(ulen + vlen + 16, 0);
+			// Leaves room for subsequent appends
+			Data data = new Data((ulen + vlen) * 3 / 2 + 16, 0);
 			data.insertAfter(u.data.nodes, u.start, u.end);
 			data.insertAfter(v.data.nodes, v.start, v.end);
 			return new Vector(data, data.startUsed, data.endUsed);
@@ -84,6 +88,10 @@ public class Vector extends Node {
 		return data.nodes[start + i];
 	}
 
+	public Node[] toArray() {
+		return Arrays.copyOfRange(data.nodes, start, end);
+	}
+
 	public Vector subVector(int s, int e) {
 		int length = length();
 		while (s < 0)
@@ -102,7 +110,7 @@ public class Vector extends Node {
 	public int hashCode() {
 		int result = 1;
 		for (int i = start; i < end; i++) {
-			int h = Util.hashCode(data.nodes[i + data.startUsed]);
+			int h = Util.hashCode(data.nodes[i]);
 			result = 31 * result + h;
 		}
 		return result;
@@ -5,11 +5,15 @@ import java.util.List;
 
 import org.suite.SuiteUtil;
 import org.suite.doer.Formatter;
+import org.suite.doer.Generalizer;
 import org.suite.doer.Prover;
+import org.suite.doer.Serializer;
 import org.suite.doer.TermParser.TermOp;
 import org.suite.node.Atom;
+import org.suite.node.Bytes;
 import org.suite.node.Int;
 import org.suite.node.Node;
+import org.suite.node.Reference;
 import org.suite.node.Str;
 import org.suite.node.Tree;
 import org.suite.predicates.SystemPredicates.SystemPredicate;
@@ -69,6 +73,9 @@ public class FormatPredicates {
 			Node p0 = params[0].finalNode(), p1 = params[1].finalNode();
 			if (p1 instanceof Str)
 				return prover.bind(p0, fromRpn(((Str) p1).getValue()));
+			else if (p1 instanceof Bytes) // Binary format, see serialize
+				return prover.bind(p0, Serializer.deserialize(((Bytes) p1)
+						.getBuffer()));
 			else {
 				StringBuilder sb = new StringBuilder();
 				toRpn(p0, sb);
@@ -76,7 +83,7 @@ public class FormatPredicates {
 			}
 		}
 
-		private static Node fromRpn(String rpn) {
+		public static Node fromRpn(String rpn) {
 			String elems[] = rpn.split("\n");
 			List<Node> stack = new ArrayList<Node>();
 
@@ -109,6 +116,12 @@ public class FormatPredicates {
 			return stack.get(0);
 		}
 
+		public static String toRpn(Node node) {
+			StringBuilder sb = new StringBuilder();
+			toRpn(node, sb);
+			return sb.toString();
+		}
+
 		private static void toRpn(Node node, StringBuilder sb) {
 			String s;
 			node = node.finalNode();
@@ -130,6 +143,36 @@ public class FormatPredicates {
 		}
 	}
 
+	public static class Serialize implements SystemPredicate {
+		public boolean prove(Prover prover, Node ps) {
+			final Node params[] = Predicate.getParameters(ps, 2);
+			Node p0 = params[0].finalNode(), p1 = params[1].finalNode();
+			if (p1 instanceof Bytes)
+				return prover.bind(p0, Serializer.deserialize(((Bytes) p1)
+						.getBuffer()));
+			else {
+				byte bytes[] = new Serializer().serialize(toVariables(p0));
+				return prover.bind(new Bytes(bytes), p1);
+			}
+		}
+
+		// Unbound references become variables, as in RPN, for use in rules
+		private static Node toVariables(Node node) {
+			node = node.finalNode();
+
+			if (node instanceof Tree) {
+				Tree tree = (Tree) node;
+				Node left = toVariables(tree.getLeft());
+				Node right = toVariables(tree.getRight());
+				node = new Tree(tree.getOperator(), left, right);
+			} else if (node instanceof Reference)
+				node = Atom.create(Generalizer.DEFAULTPREFIX
+						+ ((Reference) node).getId());
+
+			return node;
+		}
+	}
+
 	public static class StartsWith implements SystemPredicate {
 		public boolean prove(Prover prover, Node ps) {
 			final Node params[] = Predicate.getParameters(ps, 2);
@@ -3,15 +3,20 @@ package org.suite.predicates;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.suite.SuiteUtil;
 import org.suite.doer.Formatter;
 import org.suite.doer.Prover;
+import org.suite.doer.Serializer;
+import org.suite.node.Bytes;
 import org.suite.node.Node;
 import org.suite.node.Str;
 import org.suite.node.Tree;
@@ -71,9 +76,25 @@ public class IoPredicates {
 			try {
 				final Node params[] = Predicate.getParameters(ps, 2);
 				String filename = Formatter.display(params[0]);
-				InputStream is = new FileInputStream(filename);
-				String content = IoUtil.readStream(is);
-				return prover.bind(new Str(content), params[1]);
+				FileInputStream is = new FileInputStream(filename);
+				ByteBuffer buffer;
+				SuiteUtil.addDependency(false, filename);
+
+				try {
+					FileChannel channel = is.getChannel();
+					buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+				} finally {
+					is.close();
+				}
+
+				// Serialized nodes are left in the mapped buffer
+				Node content;
+				if (Serializer.isSerialized(buffer))
+					content = new Bytes(buffer);
+				else
+					content = new Str(IoUtil.charset.decode(buffer).toString());
+
+				return prover.bind(content, params[1]);
 			} catch (IOException ex) {
 				throw new RuntimeException(ex);
 			}
@@ -85,8 +106,18 @@ public class IoPredicates {
 			try {
 				final Node params[] = Predicate.getParameters(ps, 2);
 				String filename = Formatter.display(params[0]);
-				String content = Formatter.display(params[1]);
-				IoUtil.writeStream(new FileOutputStream(filename), content);
+				Node content = params[1].finalNode();
+				FileOutputStream os = new FileOutputStream(filename);
+
+				try {
+					if (content instanceof Bytes)
+						os.getChannel().write(((Bytes) content).getBuffer());
+					else
+						IoUtil.writeStream(os, Formatter.display(content));
+				} finally {
+					os.close();
+				}
+
 				return true;
 			} catch (IOException ex) {
 				throw new RuntimeException(ex);
@@ -101,6 +101,14 @@ public class RuleSetPredicates {
 		}
 	}
 
+	public static class Table implements SystemPredicate {
+		public boolean prove(Prover prover, Node ps) {
+			Node params[] = Predicate.getParameters(ps, 1);
+			prover.getRuleSet().addTable(params[0]);
+			return true;
+		}
+	}
+
 	public static class With implements SystemPredicate {
 		public boolean prove(Prover prover, Node ps) {
 			Node params[] = Predicate.getParameters(ps, 2);
@@ -63,6 +63,7 @@ public class SystemPredicates {
 		addPredicate("is.tree", new FormatPredicates.IsTree());
 		addPredicate("parse", new FormatPredicates.Parse());
 		addPredicate("rpn", new FormatPredicates.Rpn());
+		addPredicate("serialize", new FormatPredicates.Serialize());
 		addPredicate("starts.with", new FormatPredicates.StartsWith());
 		addPredicate("to.atom", new FormatPredicates.ToAtom());
 		addPredicate("to.dump.string", new FormatPredicates.ToDumpString());
@@ -86,6 +87,7 @@ public class SystemPredicates {
 		addPredicate("list", new RuleSetPredicates.ListPredicates());
 		addPredicate("retract", new RuleSetPredicates.Retract());
 		addPredicate("rules", new RuleSetPredicates.GetAllRules());
+		addPredicate("table", new RuleSetPredicates.Table());
 		addPredicate("with", new RuleSetPredicates.With());
 	}
 
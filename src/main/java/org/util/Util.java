@@ -7,6 +7,8 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.net.Socket;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
@@ -266,6 +268,21 @@ public class Util {
 		return (t != null) ? t.hashCode() : 0;
 	}
 
+	/**
+	 * @return hexadecimal SHA-1 digest, which stays the same across runs.
+	 */
+	public static String digest(byte bytes[]) {
+		try {
+			MessageDigest md = MessageDigest.getInstance("SHA-1");
+			StringBuilder sb = new StringBuilder();
+			for (byte b : md.digest(bytes))
+				sb.append(String.format("%02x", b));
+			return sb.toString();
+		} catch (NoSuchAlgorithmException ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
 	/**
 	 * Clones slowly by serializing and de-serializing.
 	 */
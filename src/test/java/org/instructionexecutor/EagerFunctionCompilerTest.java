@@ -3,6 +3,7 @@ package org.instructionexecutor;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 
+import org.instructionexecutor.InstructionExecutorUtil.StackOverflowException;
 import org.junit.Test;
 import org.suite.SuiteUtil;
 import org.suite.node.Atom;
@@ -119,15 +120,48 @@ public class EagerFunctionCompilerTest {
 				eval("if (1 = 2) then 0 else-if (2 = 2) then 1 else 2"));
 	}
 
+	@Test
+	public void testDeepRecursion() {
+		assertEquals(Int.create(200000), eval("" //
+				+ "define count = (n => if (n > 0) then (1 + count {n - 1}) else 0) >> \n" //
+				+ "count {200000}"));
+		assertEquals(Int.create(0), eval("" // Runs in constant stack
+				+ "define loop = (n => if (n > 0) then (loop {n - 1}) else 0) >> \n" //
+				+ "loop {5000000}"));
+	}
+
 	@Test
 	public void testInfiniteLoop() {
 		try {
-			SuiteUtil.evaluateEagerFunctional("(e => e {e}) {e => e {e}}");
+			SuiteUtil.evaluateEagerFunctional("(e => 1 + e {e}) {e => 1 + e {e}}");
 			throw new RuntimeException();
-		} catch (ArrayIndexOutOfBoundsException ex) {
+		} catch (StackOverflowException ex) {
 		}
 	}
 
+	@Test
+	public void testIntVector() {
+		assertEquals(Int.create(3), eval("" //
+				+ "ivector-length {ivector-append {4} {ivector-new {2} {0}}}"));
+		assertEquals(Int.create(7), eval("" //
+				+ "ivector-get {1} {ivector-set {1} {7} {ivector-new {3} {0}}}"));
+		assertEquals(Int.create(0), eval("" //
+				+ "define v = ivector-new {3} {0} >> \n" //
+				+ "define w = ivector-set {1} {7} {v} >> \n" //
+				+ "ivector-get {1} {v}"));
+		assertEquals(Int.create(4950), eval("" //
+				+ "define fill = (v => n => \n" //
+				+ "    if (n < 100) then (fill {ivector-append {n} {v}} {n + 1}) \n" //
+				+ "    else v \n" //
+				+ ") >> \n" //
+				+ "define sum = (v => i => \n" //
+				+ "    if (i < ivector-length {v}) \n" //
+				+ "    then (ivector-get {i} {v} + sum {v} {i + 1}) \n" //
+				+ "    else 0 \n" //
+				+ ") >> \n" //
+				+ "sum {fill {ivector-new {0} {0}} {0}} {0}"));
+	}
+
 	@Test
 	public void testJoin() {
 		assertEquals(Int.create(19), eval("" //
@@ -166,6 +200,16 @@ public class EagerFunctionCompilerTest {
 				+ "map {`+ 2`} {3, 4, 5,}"));
 	}
 
+	@Test
+	public void testArithmetic() {
+		assertEquals(Int.create(12705406), eval("" //
+				+ "define f = (n => (n * 3 + 7) * (n - 2) % 1000) >> \n" //
+				+ "f {12345}"));
+		assertEquals(Atom.create("true"), eval("" //
+				+ "define f = (n => n * n - 1 > n * 2) >> \n" //
+				+ "f {3}"));
+	}
+
 	@Test
 	public void testOperator() {
 		assertEquals(Atom.create("true"), eval("" //
@@ -213,6 +257,17 @@ public class EagerFunctionCompilerTest {
 				+ "switch {3}"));
 	}
 
+	@Test
+	public void testString() {
+		assertEquals(new Str("abc123"), eval("" //
+				+ "string-concat {\"abc\"} {string-of-int {123}}"));
+		assertEquals(Int.create('b'), eval("string-char-at {1} {\"abc\"}"));
+		assertEquals(Int.create(3), eval("string-length {\"abc\"}"));
+		assertEquals(new Str("hi"), eval("" //
+				+ "string-of-ivector {ivector-append {105} \n" //
+				+ "    {ivector-append {104} {ivector-new {0} {0}}}}"));
+	}
+
 	@Test
 	public void testSys() {
 		assertNotNull(Tree.decompose(eval("cons {1} {2,}")));
@@ -1,9 +1,12 @@
 package org.instructionexecutor;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.PrintStream;
 
 import org.junit.Test;
@@ -20,6 +23,44 @@ public class FilterTest {
 		eval("abcdef", "abcdef", "c => c");
 	}
 
+	@Test
+	public void testInputWindow() throws IOException {
+		int size = 200000;
+		byte bytes[] = new byte[size];
+		for (int i = 0; i < size; i++)
+			bytes[i] = (byte) i;
+
+		InputWindow in = new InputWindow(new ByteArrayInputStream(bytes));
+		for (int i = 0; i < size; i++)
+			assertEquals(bytes[i] & 0xFF, in.get(i));
+		assertEquals(-1, in.get(size));
+
+		try {
+			in.get(0);
+			fail();
+		} catch (RuntimeException ex) {
+		}
+	}
+
+	@Test
+	public void testOutputWindow() throws IOException {
+		int size = 200000;
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		OutputWindow out = new OutputWindow(os);
+
+		for (int i = 0; i < size; i++)
+			out.put(i, i);
+		assertTrue(os.size() > 0); // Written out before flushing
+		out.flush();
+		assertEquals(size, os.size());
+
+		os.reset();
+		out.put(2, 'c');
+		out.put(0, 'a');
+		out.flush();
+		assertEquals("a\0c", new String(os.toByteArray(), IoUtil.charset));
+	}
+
 	private static Node eval(String in, String out, String program) {
 		byte inBytes[] = in.getBytes(IoUtil.charset);
 		ByteArrayInputStream is = new ByteArrayInputStream(inBytes);
@@ -0,0 +1,75 @@
+package org.instructionexecutor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.instructionexecutor.InstructionExecutorUtil.Instruction;
+import org.junit.Test;
+import org.suite.SuiteUtil;
+import org.suite.SuiteUtil.FunCompilerConfig;
+import org.suite.node.Node;
+
+public class InstructionFuserTest {
+
+	private static final String programs[] = { "" //
+			+ "define fib = (n => \n" //
+			+ "    if (n > 1) then (fib {n - 1} + fib {n - 2}) else 1 \n" //
+			+ ") >> \n" //
+			+ "fib {12}" //
+			, "head {tail {quick-sort {`<`} {3, 1, 4, 5, 2,}}}" //
+			, "head {filter {n => n % 2 = 0} {3, 4, 5, 6,}}" //
+			, "fold {`*`} {2, 3, 6, 9,}" //
+	};
+
+	// Counts instruction dispatches of the threaded-code engine
+	private static class CountingExecutor extends FunctionInstructionExecutor {
+		private long count;
+
+		private CountingExecutor(Node node, boolean isFused) {
+			super(node, isFused);
+		}
+
+		@Override
+		protected Handler link(Instruction insn) {
+			final Handler handler = super.link(insn);
+			return new Handler(insn) {
+				protected void handle() {
+					count++;
+					handler.handle();
+				}
+			};
+		}
+	}
+
+	@Test
+	public void testEager() {
+		for (String program : programs)
+			test(program, false);
+	}
+
+	@Test
+	public void testLazy() {
+		for (String program : programs)
+			test(program, true);
+	}
+
+	private void test(String program, boolean isLazy) {
+		CountingExecutor e0 = execute(program, isLazy, false);
+		CountingExecutor e1 = execute(program, isLazy, true);
+		assertTrue(e1.count < e0.count);
+
+		System.out.println((isLazy ? "LAZY " : "EAGER ") + e0.count + " -> "
+				+ e1.count + " dispatches: " + program.replace('\n', ' '));
+	}
+
+	private static CountingExecutor execute(String program, boolean isLazy,
+			boolean isFused) {
+		FunCompilerConfig config = FunCompilerConfig.create(program, isLazy);
+		CountingExecutor e = new CountingExecutor(
+				SuiteUtil.compileFunctional(config), isFused);
+		Node result = e.executeThreaded();
+		assertEquals(SuiteUtil.evaluateFunctional(program, isLazy), result);
+		return e;
+	}
+
+}
@@ -0,0 +1,40 @@
+package org.instructionexecutor;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+import org.suite.SuiteUtil;
+import org.suite.SuiteUtil.FunCompilerConfig;
+import org.suite.node.Atom;
+import org.suite.node.Int;
+import org.suite.node.Node;
+
+public class JitCompilerTest {
+
+	@Test
+	public void testArithmetic() {
+		assertEquals(Int.create(89), eval("" //
+				+ "define fib = (n => \n" //
+				+ "    if (n > 1) then (fib {n - 1} + fib {n - 2}) else 1 \n" //
+				+ ") >> \n" //
+				+ "fib {10}", false));
+		assertEquals(Int.create(8000000), eval("1000000 * 7 % 9 + 1000000",
+				false));
+		assertEquals(Atom.create("true"), eval("3 * 4 = 12", true));
+	}
+
+	@Test
+	public void testList() {
+		assertEquals(SuiteUtil.parse("0, 1, 2, 3, 4, 5, 6, 7, 8, 9,"), eval("" //
+				+ "quick-sort {`<`} {5, 3, 2, 8, 6, 4, 1, 0, 9, 7,}", false));
+		assertEquals(Int.create(3), eval("" //
+				+ "head {tail {tail {3, 2, 1, 3, 4,}}} + 2", true));
+	}
+
+	private static Node eval(String program, boolean isLazy) {
+		FunCompilerConfig config = FunCompilerConfig.create(program, isLazy);
+		config.setJit(true);
+		return SuiteUtil.evaluateFunctional(config);
+	}
+
+}
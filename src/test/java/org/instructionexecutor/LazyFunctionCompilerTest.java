@@ -40,6 +40,20 @@ public class LazyFunctionCompilerTest {
 				+ "apply {fib} {t, t, t, t, t, t, t, t, t, t, h,}"));
 	}
 
+	@Test
+	public void testSharing() { // Exponential if thunks are re-evaluated
+		assertEquals(Int.create(1346269), eval("" //
+				+ "define fib = ( \n" //
+				+ "    1, 1, zip {`+`} {fib} {tail {fib}} \n" //
+				+ ") >> \n" //
+				+ "get {30} {fib}"));
+		assertEquals(Int.create(1), eval("" //
+				+ "define f = (n => \n" //
+				+ "    if (n > 0) then (define x = f {n - 1} >> x * x * x) else 1 \n" //
+				+ ") >> \n" //
+				+ "f {100}"));
+	}
+
 	@Test
 	public void testSubstitution() {
 		assertEquals(Int.create(8), eval("define v = 4 >> v + v"));
@@ -52,6 +66,10 @@ public class LazyFunctionCompilerTest {
 		eval("cons {1} {}");
 		eval("head {1, 2, 3,}");
 		eval("tail {1, 2, 3,}");
+		assertEquals(Int.create(7), eval("" //
+				+ "ivector-get {1} {ivector-set {1} {7} {ivector-new {3} {0}}}"));
+		assertEquals(Int.create(5), eval("" //
+				+ "string-length {string-concat {\"ab\"} {string-of-int {123}}}"));
 	}
 
 	private static Node eval(String f) {
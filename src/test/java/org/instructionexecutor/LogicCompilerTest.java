@@ -1,12 +1,20 @@
 package org.instructionexecutor;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
 
 import org.junit.Test;
 import org.suite.SuiteUtil;
+import org.suite.node.Int;
+import org.suite.node.Node;
+import org.suite.node.Tree;
 
 public class LogicCompilerTest {
 
@@ -21,6 +29,13 @@ public class LogicCompilerTest {
 	@Test
 	public void testCut() throws IOException {
 		assertFalse(eval(".a = 1, !, .b = 2, fail; .b = 3"));
+		assertFalse(eval("(p 1 # p 2 #) >> p .v, !, .v = 2"));
+		assertTrue(eval("(q 1 :- ! # q 2 #) >> q .v, .v = 1"));
+		assertFalse(eval("(q 1 :- ! # q 2 #) >> q .v, .v = 2"));
+		assertFalse(eval("(q .v :- p .v, ! # p 1 # p 2 #) >> q .v, .v = 2"));
+		assertTrue(eval("" //
+				+ "(n 0 :- ! # n .n :- let .n1 (.n - 1), n .n1 #) >> n 1000"));
+		assertTrue(eval("(m 0 # m 1 # n .a :- m .a, ! #) >> m .c, n .c, .c = 1"));
 	}
 
 	@Test
@@ -52,6 +67,63 @@ public class LogicCompilerTest {
 		assertTrue(eval("(p .v :- q .v # q 3 #) >> p 3"));
 	}
 
+	@Test
+	public void testSolutions() {
+		Iterator<Node> iter = SuiteUtil.evaluateLogicalSolutions("" //
+				+ "(p 1 # p 2 # p 3 #) >> p .v, (.v = 1; .v = 3)");
+		assertEquals(SuiteUtil.parse("p 1, (1 = 1; 1 = 3)"), iter.next());
+		assertEquals(SuiteUtil.parse("p 3, (3 = 1; 3 = 3)"), iter.next());
+		assertFalse(iter.hasNext());
+
+		assertFalse(SuiteUtil.evaluateLogicalSolutions("fail").hasNext());
+	}
+
+	@Test
+	public void testSolutionsOnDemand() {
+		Iterator<Node> iter = SuiteUtil.evaluateLogicalSolutions("" //
+				+ "(nat 0 # nat .n :- nat .m, let .n (.m + 1) #) >> nat .n");
+
+		for (int i = 0; i < 1000; i++)
+			assertEquals(Int.create(i), Tree.decompose(iter.next()).getRight());
+	}
+
+	@Test
+	public void testParallel() {
+		String program = "" //
+				+ "(m 0 # m 1 # m 2 #) >> m .a, m .b, m .c, (.a = .b; .b = .c)";
+		List<Node> solutions = SuiteUtil.evaluateLogicalParallel(program, 3);
+		assertEquals(18, solutions.size());
+		assertEquals(findAll(program), solutions);
+	}
+
+	@Test
+	public void testParallelWithCut() {
+		String program = ".a = 1, !, .b = 2; .b = 3";
+		assertEquals(Arrays.asList(SuiteUtil.parse("1 = 1, !, 2 = 2; 2 = 3")),
+				SuiteUtil.evaluateLogicalParallel(program, 3));
+
+		String programs[] = { "" //
+				+ "(q 1 :- ! # q 2 #) >> q .v", "" //
+				+ "(p 1 # p 2 # p 3 # q .v :- p .v, .v = 2, ! # q 4 #) \n" //
+				+ ">> q .v; .v = 5", "" //
+				+ "(r .v :- (.v = 1; .v = 2, !; .v = 3) # r 4 #) >> r .v", "" //
+				+ "(m 0 # m 1 # m 2 # n .a :- m .b, .a = .b, ! #) \n" //
+				+ ">> m .c, n .c; .c = 3", };
+
+		for (String p : programs)
+			for (int cutoffDepth = 1; cutoffDepth <= 8; cutoffDepth *= 2)
+				assertEquals(findAll(p),
+						SuiteUtil.evaluateLogicalParallel(p, cutoffDepth));
+	}
+
+	private List<Node> findAll(String program) {
+		List<Node> solutions = new ArrayList<Node>();
+		Iterator<Node> iter = SuiteUtil.evaluateLogicalSolutions(program);
+		while (iter.hasNext())
+			solutions.add(iter.next());
+		return solutions;
+	}
+
 	@Test
 	public void testVariables() throws IOException {
 		assertTrue(eval(".a = 1, 1 = .a"));
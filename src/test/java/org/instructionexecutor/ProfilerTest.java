@@ -0,0 +1,48 @@
+package org.instructionexecutor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.junit.Test;
+import org.suite.SuiteUtil;
+import org.suite.SuiteUtil.FunCompilerConfig;
+import org.suite.node.Int;
+
+public class ProfilerTest {
+
+	private static final String fib = "" //
+			+ "define fib = (n => \n" //
+			+ "    if (n > 1) then (fib {n - 1} + fib {n - 2}) else 1 \n" //
+			+ ") >> \n" //
+			+ "fib {12}";
+
+	@Test
+	public void testProfile() {
+		FunCompilerConfig config = FunCompilerConfig.create(fib, false);
+		FunctionInstructionExecutor e = new FunctionInstructionExecutor(
+				SuiteUtil.compileFunctional(config));
+		Profiler profiler = new Profiler();
+
+		e.setProfiler(profiler);
+		assertEquals(Int.create(233), e.execute());
+
+		Map<String, Long> counts = profiler.getInstructionCounts();
+		long total = 0;
+		for (long count : counts.values())
+			total += count;
+
+		assertEquals(profiler.getInstructionCount(), total);
+		assertTrue(counts.get("ENTER") >= 465); // Calls to fib
+		assertTrue(profiler.getAllocationCounts().get("Frame") >= 465);
+		assertTrue(profiler.getMaxCallStackDepth() >= 11);
+		assertTrue(profiler.getFlatProfile().contains("ENTER"));
+
+		profiler.reset();
+		assertEquals(0, profiler.getInstructionCount());
+		e.setProfiler(null);
+		assertEquals(Int.create(233), e.executeJit());
+	}
+
+}
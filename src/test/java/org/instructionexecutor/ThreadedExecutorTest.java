@@ -0,0 +1,41 @@
+package org.instructionexecutor;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+import org.suite.SuiteUtil;
+import org.suite.SuiteUtil.FunCompilerConfig;
+import org.suite.node.Int;
+import org.suite.node.Node;
+
+public class ThreadedExecutorTest {
+
+	private static final String fib = "" //
+			+ "define fib = (n => \n" //
+			+ "    if (n > 1) then (fib {n - 1} + fib {n - 2}) else 1 \n" //
+			+ ") >> \n" //
+			+ "fib {10}";
+
+	private static final String sort = "" //
+			+ "quick-sort {`<`} {5, 3, 2, 8, 6, 4, 1, 0, 9, 7,}";
+
+	@Test
+	public void testEager() {
+		assertEquals(Int.create(89), eval(fib, false));
+		assertEquals(SuiteUtil.parse("0, 1, 2, 3, 4, 5, 6, 7, 8, 9,") //
+				, eval(sort, false));
+	}
+
+	@Test
+	public void testLazy() {
+		assertEquals(Int.create(89), eval(fib, true));
+		assertEquals(Int.create(1), eval("head {tail {" + sort + "}}", true));
+	}
+
+	private static Node eval(String program, boolean isLazy) {
+		FunCompilerConfig config = FunCompilerConfig.create(program, isLazy);
+		config.setThreaded(true);
+		return SuiteUtil.evaluateFunctional(config);
+	}
+
+}
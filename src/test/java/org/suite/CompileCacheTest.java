@@ -0,0 +1,75 @@
+package org.suite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.instructionexecutor.FunctionInstructionExecutor;
+import org.junit.Test;
+import org.suite.node.Atom;
+import org.suite.node.Int;
+import org.suite.node.Node;
+
+public class CompileCacheTest {
+
+	private Node mode = Atom.create("EAGER");
+
+	@Test
+	public void testRepeatedEvaluation() {
+		CompileCache cache = SuiteUtil.getCompileCache();
+		String program = "define f = (n => n * 3) >> f {14}";
+
+		for (int i = 0; i < 3; i++)
+			assertEquals(Int.create(42),
+					SuiteUtil.evaluateEagerFunctional(program));
+
+		Node key = CompileCache.key(mode, SuiteUtil.parse(program));
+		int hits = cache.getHits();
+		assertNotNull(cache.get(key));
+		assertEquals(hits + 1, cache.getHits());
+	}
+
+	@Test
+	public void testEviction() {
+		CompileCache cache = new CompileCache(2);
+		Node code = SuiteUtil.parse("a, b,");
+
+		cache.put(key("1"), code);
+		cache.put(key("2"), code);
+		cache.get(key("1"));
+		cache.put(key("3"), code);
+
+		assertNotNull(cache.get(key("1")));
+		assertEquals(null, cache.get(key("2")));
+		assertNotNull(cache.get(key("3")));
+	}
+
+	@Test
+	public void testDirectory() {
+		File directory = new File(System.getProperty("java.io.tmpdir"),
+				"suite-compile-cache-test");
+		String program = "1 + 2";
+		Node key = CompileCache.key(mode, SuiteUtil.parse(program));
+
+		Node code = SuiteUtil.compileFunctional(SuiteUtil.FunCompilerConfig
+				.create(program, false));
+		new CompileCache(4, directory).put(key, code);
+
+		CompileCache cache = new CompileCache(4, directory);
+		Node code1 = cache.get(key);
+		assertNotNull(code1);
+		assertEquals(Int.create(3),
+				new FunctionInstructionExecutor(code1).execute());
+
+		for (File file : directory.listFiles())
+			assertTrue(file.delete());
+		directory.delete();
+	}
+
+	private Node key(String program) {
+		return CompileCache.key(mode, SuiteUtil.parse(program));
+	}
+
+}
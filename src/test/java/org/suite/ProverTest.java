@@ -1,10 +1,15 @@
 package org.suite;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import org.junit.Test;
+import org.suite.doer.Generalizer;
+import org.suite.doer.HeadSignature;
+import org.suite.doer.Prover;
 import org.suite.kb.RuleSet;
+import org.suite.node.Reference;
 
 public class ProverTest {
 
@@ -70,6 +75,105 @@ public class ProverTest {
 				"app (a, b, c,) (d, e,) (a, b, c, d, e,)"));
 	}
 
+	@Test
+	public void testArgumentIndex() {
+		RuleSet rs = new RuleSet();
+		for (int i = 0; i < 100; i++) {
+			SuiteUtil.addRule(rs, "edge n" + i + " n" + (i + 1));
+			SuiteUtil.addRule(rs, "edge n" + i + " (m " + i + ")");
+		}
+		SuiteUtil.addRule(rs, "edge .n end");
+
+		assertEquals(3, rs.getRules(SuiteUtil.parse("edge n5 .v")).size());
+		assertEquals(1, rs.getRules(SuiteUtil.parse("edge .v n5")).size());
+		assertEquals(1, rs.getRules(SuiteUtil.parse("edge n5 n6")).size());
+		assertEquals(201, rs.getRules(SuiteUtil.parse("edge .u .v")).size());
+
+		assertTrue(SuiteUtil.proveThis(rs, "edge n5 n6"));
+		assertTrue(SuiteUtil.proveThis(rs, "edge n5 (m 5)"));
+		assertTrue(SuiteUtil.proveThis(rs, "edge n5 end"));
+		assertTrue(SuiteUtil.proveThis(rs, "edge .v n5, .v = n4"));
+		assertTrue(SuiteUtil.proveThis(rs,
+				"find.all .v (edge n5 .v) (n6, m 5, end,)"));
+		assertFalse(SuiteUtil.proveThis(rs, "edge n5 n7"));
+
+		SuiteUtil.addRule(rs, "edge n5 n7");
+		assertTrue(SuiteUtil.proveThis(rs, "edge n5 n7"));
+		rs.removeRule(SuiteUtil.parse("edge n5 n6"));
+		assertFalse(SuiteUtil.proveThis(rs, "edge n5 n6"));
+
+		// Indexed clauses being tried are those when the call was made
+		assertTrue(SuiteUtil.proveThis(rs, "find.all .v (edge n5 .v"
+				+ ", assert (edge n5 z)) (m 5, end, n7,)"));
+		assertTrue(SuiteUtil.proveThis(rs, "find.all .v (edge n5 .v"
+				+ ", asserta (edge n5 y), retract (edge n5 n7))"
+				+ " (m 5, end, n7, z, z, z,)"));
+		assertTrue(SuiteUtil.proveThis(rs,
+				"find.all .v (edge n5 .v) (y, y, y, y, y, y, m 5, end, z, z, z,)"));
+	}
+
+	@Test
+	public void testUpdateView() {
+		RuleSet rs = new RuleSet();
+		SuiteUtil.addRule(rs, "p 1");
+		SuiteUtil.addRule(rs, "p 2");
+		SuiteUtil.addRule(rs, "p 3");
+		SuiteUtil.addRule(rs, "q 1");
+		SuiteUtil.addRule(rs, "q 2");
+
+		// Clauses being tried are those when the call was made
+		assertTrue(SuiteUtil.proveThis(rs, "find.all .x (p .x, retract (p .x))"
+				+ " (1, 2, 3,)"));
+		assertFalse(SuiteUtil.proveThis(rs, "p .x"));
+		assertTrue(SuiteUtil.proveThis(rs, "find.all .x (q .x, assert (q 9))"
+				+ " (1, 2,)"));
+		assertTrue(SuiteUtil.proveThis(rs, "find.all .x (q .x, asserta (q 0))"
+				+ " (1, 2, 9, 9,)"));
+		assertTrue(SuiteUtil.proveThis(rs, "find.all .x (q .x) (0, 0, 0, 0, 1"
+				+ ", 2, 9, 9,)"));
+
+		// No choice point is left after the last clause of the call
+		SuiteUtil.addRule(rs, "r 1");
+		assertTrue(SuiteUtil.proveThis(rs, "find.all .x (r .x, assert (r 2))"
+				+ " (1,)"));
+	}
+
+	@Test
+	public void testHeadSignature() {
+		HeadSignature signature = new HeadSignature(
+				SuiteUtil.parse("m (f 1 .a) \"s\" _"));
+		Generalizer generalizer = new Generalizer();
+
+		assertTrue(signature.matches(generalizer.generalize(SuiteUtil
+				.parse("m (f 1 x) \"s\" y"))));
+		assertTrue(signature.matches(generalizer.generalize(SuiteUtil
+				.parse("m .v \"s\" y"))));
+		assertTrue(signature.matches(generalizer.generalize(SuiteUtil
+				.parse("m (f .v x) .s y"))));
+		assertFalse(signature.matches(generalizer.generalize(SuiteUtil
+				.parse("m (f 2 x) \"s\" y"))));
+		assertFalse(signature.matches(generalizer.generalize(SuiteUtil
+				.parse("m (g 1 x) \"s\" y"))));
+		assertFalse(signature.matches(generalizer.generalize(SuiteUtil
+				.parse("m (f 1 x) \"t\" y"))));
+		assertFalse(signature.matches(generalizer.generalize(SuiteUtil
+				.parse("m f \"s\" y"))));
+	}
+
+	@Test
+	public void testVariables() {
+		RuleSet rs = new RuleSet();
+		SuiteUtil.addRule(rs, "any _ _");
+		SuiteUtil.addRule(rs, "equal .x .x");
+		SuiteUtil.addRule(rs, "swap (.a, .b) (.b, .a)");
+
+		assertTrue(SuiteUtil.proveThis(rs, "any 1 2"));
+		assertTrue(SuiteUtil.proveThis(rs, "equal 1 .v, .v = 1"));
+		assertFalse(SuiteUtil.proveThis(rs, "equal 1 2"));
+		assertTrue(SuiteUtil.proveThis(rs, "swap (1, 2) .p, swap .p .q"
+				+ ", .q = (1, 2), swap (3, 4) (4, 3)"));
+	}
+
 	@Test
 	public void testFindAll() {
 		assertTrue(proveThis("find.all .v (.v = a; .v = b; .v = c) .results"
@@ -84,6 +188,109 @@ public class ProverTest {
 		assertFalse(SuiteUtil.proveThis(rs, "a"));
 	}
 
+	@Test
+	public void testBacktrack() {
+		RuleSet rs = new RuleSet();
+		SuiteUtil.addRule(rs, "p 1");
+		SuiteUtil.addRule(rs, "p 2");
+		SuiteUtil.addRule(rs, "p 3");
+		SuiteUtil.addRule(rs, "first .v :- p .v, !");
+		SuiteUtil.addRule(rs, "loop 0 :- !");
+		SuiteUtil.addRule(rs, "loop .n :- let .n1 (.n - 1), loop .n1");
+
+		assertTrue(SuiteUtil.proveThis(rs, "p .v, .v = 3"));
+		assertTrue(SuiteUtil.proveThis(rs, "first .v, .v = 1"));
+		assertFalse(SuiteUtil.proveThis(rs, "first .v, .v = 2"));
+		assertTrue(SuiteUtil.proveThis(rs, "p .u, first .v, p .w, .u = 2"
+				+ ", .w = 3"));
+		assertTrue(SuiteUtil.proveThis(rs,
+				"find.all .u (p .u, p .v, .u = .v, .v > 1) (2, 3,)"));
+		assertTrue(SuiteUtil.proveThis(rs, "loop 10000"));
+
+		// Variables of the clauses are not trailed
+		Prover prover = new Prover(rs);
+		assertTrue(prover.prove(SuiteUtil.parse("loop 10000")));
+		assertTrue(prover.getJournal().getHighWaterMark() < 10);
+	}
+
+	@Test
+	public void testConditionalTrail() {
+		RuleSet rs = new RuleSet();
+		SuiteUtil.addRule(rs, "p 1");
+		SuiteUtil.addRule(rs, "p 2");
+		SuiteUtil.addRule(rs, "c .a .a .a");
+		SuiteUtil.addRule(rs, "c y x y");
+		SuiteUtil.addRule(rs, "t :- c .s x y, .s = y");
+
+		// Solutions cloned by find.all are bound after another choice point
+		assertTrue(SuiteUtil.proveThis(rs, "" //
+				+ "(find.all (.v, .w) (p .v) .l; .l = ())" //
+				+ ", .l = (.e, _), (.e = (1, a), fail; .e = (1, b))"));
+
+		// A failed clause head unbinds the clause variables of its caller
+		assertTrue(SuiteUtil.proveThis(rs, "p .v, t"));
+	}
+
+	@Test
+	public void testReferenceIdWrapAround() {
+		RuleSet rs = new RuleSet();
+		SuiteUtil.addRule(rs, "p 1");
+		SuiteUtil.addRule(rs, "p 2");
+		SuiteUtil.addRule(rs, "loop 0 :- !");
+		SuiteUtil.addRule(rs, "loop .n :- let .n1 (.n - 1), loop .n1");
+
+		int nextId = Reference.getNextId();
+		Reference.setNextId(Integer.MAX_VALUE - 1000);
+
+		try {
+			Prover prover = new Prover(rs);
+			assertTrue(prover.prove(SuiteUtil.parse("loop 10000")));
+			assertTrue(Reference.getNextId() < 0);
+			assertTrue(prover.getJournal().getHighWaterMark() < 10);
+
+			assertTrue(SuiteUtil.proveThis(rs, "p .v, .v = 2"));
+			assertTrue(SuiteUtil.proveThis(rs, "" //
+					+ "(find.all (.v, .w) (p .v) .l; .l = ())" //
+					+ ", .l = (.e, _), (.e = (1, a), fail; .e = (1, b))"));
+		} finally {
+			Reference.setNextId(nextId);
+		}
+	}
+
+	@Test
+	public void testTable() {
+		RuleSet rs = new RuleSet();
+		SuiteUtil.addRule(rs, "edge a b");
+		SuiteUtil.addRule(rs, "edge b c");
+		SuiteUtil.addRule(rs, "edge c a");
+		SuiteUtil.addRule(rs, "edge c d");
+		SuiteUtil.addRule(rs, "reach .x .y :- reach .x .z, edge .z .y");
+		SuiteUtil.addRule(rs, "reach .x .y :- edge .x .y");
+		SuiteUtil.addRule(rs, "path .x .y :- step .x .z, edge .z .y");
+		SuiteUtil.addRule(rs, "path .x .y :- edge .x .y");
+		SuiteUtil.addRule(rs, "step .x .y :- path .x .y");
+
+		assertTrue(SuiteUtil.proveThis(rs, "table reach _ _, table path _ _"));
+		assertTrue(SuiteUtil.proveThis(rs, "reach a d"));
+		assertTrue(SuiteUtil.proveThis(rs, "reach a a"));
+		assertFalse(SuiteUtil.proveThis(rs, "reach d .v"));
+		assertTrue(SuiteUtil.proveThis(rs, "find.all .v (reach b .v) .vs"
+				+ ", .vs = (c, a, d, b,)"));
+		assertTrue(SuiteUtil.proveThis(rs, "find.all .v (path b .v) .vs"
+				+ ", .vs = (c, a, d, b,)"));
+		assertTrue(SuiteUtil.proveThis(rs, "find.all (.u .v) (reach .u .v) .l"
+				+ ", find.all (.u .v) (path .u .v) .l"));
+
+		assertTrue(SuiteUtil.proveThis(rs, "not reach a e, assert (edge d e)"
+				+ ", reach a e"));
+
+		Prover prover = new Prover(rs);
+		prover.getTables().setCapacity(1);
+		assertTrue(prover.prove(new Generalizer().generalize(SuiteUtil
+				.parse("find.all .v (path .v e) .vs, .vs = (c, b, a, d,)"))));
+		assertTrue(prover.getTables().getSize() <= 1 + 4);
+	}
+
 	@Test
 	public void testWrite() {
 		assertTrue(proveThis("write (1 + 2 * 3), nl"));
@@ -0,0 +1,42 @@
+package org.suite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+import org.suite.kb.RuleSet;
+import org.suite.kb.RuleSetImage;
+import org.suite.node.Atom;
+
+public class RuleSetImageTest {
+
+	@Test
+	public void testSaveLoad() throws IOException {
+		File file = new File(System.getProperty("java.io.tmpdir"),
+				"suite-rule-set-test.image");
+
+		RuleSet rs = new RuleSet();
+		SuiteUtil.importResource(rs, "auto.sl");
+		SuiteUtil.addRule(rs, "ancestor .a .c :- parent .a .b, ancestor .b .c");
+		SuiteUtil.addRule(rs, "ancestor .a .b :- parent .a .b");
+		SuiteUtil.addRule(rs, "parent john mary");
+		SuiteUtil.addRule(rs, "parent mary tom");
+		RuleSetImage.save(file, Atom.create("v1"), rs);
+
+		RuleSetImage image = RuleSetImage.open(file);
+		assertEquals(Atom.create("v1"), image.getStamp());
+
+		RuleSet rs1 = image.load();
+		assertEquals(rs.getRules().size(), rs1.getRules().size());
+		assertTrue(SuiteUtil.proveThis(rs1, "ancestor john tom"));
+		assertFalse(SuiteUtil.proveThis(rs1, "ancestor tom john"));
+		assertTrue(SuiteUtil.proveThis(rs1, "list repeat"));
+
+		assertTrue(file.delete());
+	}
+
+}
@@ -0,0 +1,91 @@
+package org.suite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.Test;
+import org.suite.doer.Serializer;
+import org.suite.doer.TermParser.TermOp;
+import org.suite.kb.RuleSet;
+import org.suite.node.Bytes;
+import org.suite.node.Int;
+import org.suite.node.Node;
+import org.suite.node.Reference;
+import org.suite.node.Str;
+import org.suite.node.Tree;
+
+public class SerializerTest {
+
+	@Test
+	public void testRoundTrip() {
+		String s = "a :- b .c, 'q u' .c; -7 = 123456789 # d {e} => f + g #";
+		Node node = SuiteUtil.parse(s);
+		assertEquals(node, roundTrip(node));
+		assertEquals(new Str("string"), roundTrip(new Str("string")));
+		assertEquals(Int.create(Integer.MIN_VALUE),
+				roundTrip(Int.create(Integer.MIN_VALUE)));
+
+		Bytes bytes = new Bytes(new Serializer().serialize(node));
+		Bytes bytes1 = new Bytes(new Serializer().serialize(roundTrip(node)));
+		assertEquals(bytes, bytes1);
+		assertEquals(bytes.hashCode(), bytes1.hashCode());
+	}
+
+	@Test
+	public void testReferences() {
+		Reference ref = new Reference();
+		Node node = new Tree(TermOp.TUPLE_, ref, new Tree(TermOp.TUPLE_, ref,
+				new Reference()));
+
+		Tree tree = Tree.decompose(roundTrip(node));
+		Tree right = Tree.decompose(tree.getRight());
+		assertTrue(tree.getLeft() instanceof Reference);
+		assertTrue(tree.getLeft() == right.getLeft());
+		assertTrue(right.getLeft() != right.getRight());
+	}
+
+	@Test
+	public void testLongList() {
+		Node nodes[] = new Node[100000];
+		for (int i = 0; i < nodes.length; i++)
+			nodes[i] = Int.create(i);
+
+		Node list = Node.list(TermOp.AND___, nodes);
+		Node list1 = roundTrip(list);
+		Tree tree, tree1;
+
+		// Walks along the lists, as comparing whole trees recurses too deep
+		while ((tree = Tree.decompose(list, TermOp.AND___)) != null) {
+			tree1 = Tree.decompose(list1, TermOp.AND___);
+			assertTrue(tree1 != null);
+			assertEquals(tree.getLeft(), tree1.getLeft());
+			list = tree.getRight();
+			list1 = tree1.getRight();
+		}
+
+		assertEquals(list, list1);
+	}
+
+	@Test
+	public void testFile() {
+		File file = new File(System.getProperty("java.io.tmpdir"),
+				"suite-serializer-test.node");
+		String filename = file.getPath();
+		RuleSet rs = new RuleSet();
+
+		assertTrue(SuiteUtil.proveThis(rs, "" //
+				+ "serialize (a, b 1, c -2,) .bytes" //
+				+ ", file-write '" + filename + "' .bytes" //
+				+ ", file-read '" + filename + "' .content" //
+				+ ", rpn .node .content" //
+				+ ", .node = (a, b 1, c -2,)"));
+		assertTrue(file.delete());
+	}
+
+	private Node roundTrip(Node node) {
+		return Serializer.deserialize(new Serializer().serialize(node));
+	}
+
+}